@@ -18,10 +18,22 @@ package org.jetbrains.kotlin.core;
 
 import static org.eclipse.core.resources.ResourcesPlugin.getWorkspace;
 
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.runtime.Plugin;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.JavaCore;
 import org.jetbrains.kotlin.core.builder.ResourceChangeListener;
+import org.jetbrains.kotlin.core.index.KotlinDeclarationIndex;
+import org.jetbrains.kotlin.core.index.KotlinDependencyGraph;
+import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.core.model.KotlinMemoryWatcher;
+import org.jetbrains.kotlin.core.model.KotlinNature;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaModelListener;
+import org.jetbrains.kotlin.core.utils.KotlinBuiltInsLoadingJob;
 import org.osgi.framework.BundleContext;
 
 public class Activator extends Plugin {
@@ -29,6 +41,8 @@ public class Activator extends Plugin {
 	private static Activator plugin;
 	
 	private final IResourceChangeListener resourceChangeListener = new ResourceChangeListener();
+	private final KotlinMemoryWatcher memoryWatcher = new KotlinMemoryWatcher();
+	private final IElementChangedListener javaModelListener = new EclipseJavaModelListener();
 
 	public static final String PLUGIN_ID = "org.jetbrains.kotlin.core";
 
@@ -43,13 +57,35 @@ public class Activator extends Plugin {
 	@Override
     public void start(BundleContext bundleContext) throws Exception {
 		getWorkspace().addResourceChangeListener(resourceChangeListener, IResourceChangeEvent.POST_CHANGE);
+		JavaCore.addElementChangedListener(javaModelListener, ElementChangedEvent.POST_CHANGE);
 		
 		super.start(bundleContext);
+		
+		KotlinDeclarationIndex.INSTANCE.load(getStateLocation());
+		KotlinDeclarationIndex.INSTANCE.scheduleValidation();
+		
+		memoryWatcher.start();
+		
+		new KotlinBuiltInsLoadingJob().schedule();
+		
+		KotlinPerformanceStatistics.INSTANCE.registerMBean();
+		
+		for (IProject project : getWorkspace().getRoot().getProjects()) {
+			if (project.isOpen() && KotlinNature.hasKotlinNature(project)) {
+				KotlinEnvironment.scheduleEnvironmentCreation(JavaCore.create(project));
+			}
+		}
 	}
 
 	@Override
     public void stop(BundleContext bundleContext) throws Exception {
 		getWorkspace().removeResourceChangeListener(resourceChangeListener);
+		JavaCore.removeElementChangedListener(javaModelListener);
+		memoryWatcher.stop();
+		KotlinPerformanceStatistics.INSTANCE.unregisterMBean();
+		
+		KotlinDeclarationIndex.INSTANCE.save(getStateLocation());
+		KotlinDependencyGraph.saveAll(getStateLocation());
 		
 		plugin = null;
 	}
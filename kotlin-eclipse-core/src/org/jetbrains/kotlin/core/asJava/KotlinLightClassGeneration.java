@@ -14,6 +14,8 @@ import org.jetbrains.kotlin.codegen.state.GenerationState;
 import org.jetbrains.kotlin.core.filesystem.KotlinLightClassManager;
 import org.jetbrains.kotlin.core.model.KotlinEnvironment;
 import org.jetbrains.kotlin.core.model.KotlinJavaManager;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.Phase;
 import org.jetbrains.kotlin.psi.JetFile;
 
 import com.intellij.openapi.project.Project;
@@ -36,20 +38,25 @@ public class KotlinLightClassGeneration {
             @NotNull List<JetFile> jetFiles) {
         Project project = KotlinEnvironment.getEnvironment(javaProject).getProject();
         
-        GenerationState state = new GenerationState(
-                project, 
-                new LightClassBuilderFactory(), 
-                analysisResult.getModuleDescriptor(),
-                analysisResult.getBindingContext(), 
-                jetFiles);
-        
-        KotlinCodegenFacade.compileCorrectFiles(state, new CompilationErrorHandler() {
-            @Override
-            public void reportException(Throwable exception, String fileUrl) {
-                // skip
-            }
-        });
-        
-        return state;
+        long start = System.nanoTime();
+        try {
+            GenerationState state = new GenerationState(
+                    project, 
+                    new LightClassBuilderFactory(), 
+                    analysisResult.getModuleDescriptor(),
+                    analysisResult.getBindingContext(), 
+                    jetFiles);
+            
+            KotlinCodegenFacade.compileCorrectFiles(state, new CompilationErrorHandler() {
+                @Override
+                public void reportException(Throwable exception, String fileUrl) {
+                    // skip
+                }
+            });
+            
+            return state;
+        } finally {
+            KotlinPerformanceStatistics.INSTANCE.record(Phase.LIGHT_CLASS_GENERATION, start);
+        }
     }
 }
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.builder;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Range of the text which was changed since psi was built. {@code startOffset} and {@code oldEndOffset} are offsets
+ * in the text of the psi, {@code startOffset} and {@code newEndOffset} are offsets in the changed text.
+ */
+public class ChangedRange {
+    private final int startOffset;
+    private final int oldEndOffset;
+    private final int newEndOffset;
+    
+    public ChangedRange(int startOffset, int oldEndOffset, int newEndOffset) {
+        assert startOffset <= oldEndOffset && startOffset <= newEndOffset;
+        
+        this.startOffset = startOffset;
+        this.oldEndOffset = oldEndOffset;
+        this.newEndOffset = newEndOffset;
+    }
+    
+    /**
+     * Creates range for a replacement of {@code replacedLength} characters at {@code offset} with a text of 
+     * {@code insertedLength} characters
+     */
+    @NotNull
+    public static ChangedRange forReplacement(int offset, int replacedLength, int insertedLength) {
+        return new ChangedRange(offset, offset + replacedLength, offset + insertedLength);
+    }
+    
+    /**
+     * Merges this range with a replacement which was made after it, offsets of replacement are in the changed text
+     */
+    @NotNull
+    public ChangedRange merge(int offset, int replacedLength, int insertedLength) {
+        int delta = getLengthDelta() + insertedLength - replacedLength;
+        int newStart = Math.min(startOffset, offset);
+        int newEnd = Math.max(newEndOffset, offset + replacedLength) + insertedLength - replacedLength;
+        
+        return new ChangedRange(newStart, newEnd - delta, newEnd);
+    }
+    
+    public int getStartOffset() {
+        return startOffset;
+    }
+    
+    public int getOldEndOffset() {
+        return oldEndOffset;
+    }
+    
+    public int getNewEndOffset() {
+        return newEndOffset;
+    }
+    
+    public int getLengthDelta() {
+        return newEndOffset - oldEndOffset;
+    }
+    
+    @Override
+    public String toString() {
+        return "ChangedRange[" + startOffset + ", " + oldEndOffset + " -> " + newEndOffset + "]";
+    }
+}
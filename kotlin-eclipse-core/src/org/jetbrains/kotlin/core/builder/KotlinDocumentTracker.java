@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.builder;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IDocumentListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tracks modifications of an editor document, so psi can be synchronized with the document 
+ * without copying and comparing the whole text. Text, stamp and changed range of the document are consistent 
+ * only when they are read under the lock of the tracker and {@link #isChanging()} is false.
+ */
+public class KotlinDocumentTracker implements IDocumentListener {
+    
+    private final IDocument document;
+    
+    private ChangedRange changedRange = null;
+    private long baseModificationStamp;
+    private boolean changing = false;
+    
+    public KotlinDocumentTracker(@NotNull IDocument document) {
+        this.document = document;
+        this.baseModificationStamp = getModificationStamp();
+        
+        document.addDocumentListener(this);
+    }
+    
+    public void dispose() {
+        document.removeDocumentListener(this);
+    }
+    
+    @NotNull
+    public IDocument getDocument() {
+        return document;
+    }
+    
+    public long getModificationStamp() {
+        if (document instanceof IDocumentExtension4) {
+            return ((IDocumentExtension4) document).getModificationStamp();
+        }
+        
+        return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+    }
+    
+    @Override
+    public synchronized void documentAboutToBeChanged(DocumentEvent event) {
+        changing = true;
+    }
+    
+    @Override
+    public synchronized void documentChanged(DocumentEvent event) {
+        changing = false;
+        
+        int insertedLength = event.getText() != null ? event.getText().length() : 0;
+        if (changedRange == null) {
+            changedRange = ChangedRange.forReplacement(event.getOffset(), event.getLength(), insertedLength);
+        } else {
+            changedRange = changedRange.merge(event.getOffset(), event.getLength(), insertedLength);
+        }
+    }
+    
+    /**
+     * Modification stamp of the document from which changed range is tracked
+     */
+    synchronized long getBaseModificationStamp() {
+        return baseModificationStamp;
+    }
+    
+    /**
+     * Range of the document changed since base modification stamp or {@code null} if there were no changes
+     */
+    @Nullable
+    synchronized ChangedRange getChangedRange() {
+        return changedRange;
+    }
+    
+    /**
+     * Whether the text of the document can already be changed while its stamp and changed range are not updated yet
+     */
+    synchronized boolean isChanging() {
+        return changing;
+    }
+    
+    synchronized void reset(long modificationStamp) {
+        baseModificationStamp = modificationStamp;
+        changedRange = null;
+    }
+}
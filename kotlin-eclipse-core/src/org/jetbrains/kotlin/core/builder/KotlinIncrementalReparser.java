@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.builder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.resolve.KotlinCodeBlocks;
+import org.jetbrains.kotlin.lexer.JetTokens;
+import org.jetbrains.kotlin.psi.JetBlockExpression;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.psi.JetFunctionLiteral;
+import org.jetbrains.kotlin.psi.JetFunctionLiteralExpression;
+import org.jetbrains.kotlin.psi.JetPsiFactory;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.impl.source.tree.TreeElement;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.LightVirtualFile;
+
+/**
+ * Reparses the smallest block (block expression or function literal) which encloses changed range and replaces it 
+ * in the existing tree. Only blocks inside code blocks (see {@link KotlinCodeBlocks}) are reparsed in place: 
+ * analysis sessions keep descriptors of declarations outside of them, which must not point to detached psi.
+ */
+public class KotlinIncrementalReparser {
+    
+    private static final String BLOCK_PREFIX = "fun f() ";
+    private static final String FUNCTION_LITERAL_PREFIX = "val v = ";
+    
+    /**
+     * Finds the block which should be reparsed to apply the change to the tree
+     * 
+     * @param newTextLength length of the text after the change
+     * @return null if the change cannot be reparsed incrementally and the file should be reparsed fully 
+     */
+    @Nullable
+    static PsiElement findBlockToReparse(@NotNull JetFile jetFile, @NotNull ChangedRange range, int newTextLength) {
+        int oldLength = jetFile.getTextLength();
+        if (range.getOldEndOffset() > oldLength || newTextLength - oldLength != range.getLengthDelta()) {
+            return null;
+        }
+        
+        return findEnclosingBlock(jetFile, range);
+    }
+    
+    /**
+     * Range of the block in the text after the change
+     */
+    @NotNull
+    static TextRange getNewBlockRange(@NotNull PsiElement block, @NotNull ChangedRange range) {
+        TextRange blockRange = block.getTextRange();
+        return new TextRange(blockRange.getStartOffset(), blockRange.getEndOffset() + range.getLengthDelta());
+    }
+    
+    /**
+     * Parses the new text of the block and replaces the block with the result in place
+     * 
+     * @return {@code false} if the new text is not a block of the same kind, the tree is not changed then
+     */
+    static boolean reparseBlock(@NotNull JetFile jetFile, @NotNull PsiElement block, @NotNull String newBlockText) {
+        if (newBlockText.indexOf('\r') >= 0) {
+            return false; // Line separators should be converted, so reparse whole file
+        }
+        
+        PsiElement newBlock = parseBlock(jetFile, block, newBlockText);
+        if (newBlock == null) {
+            return false;
+        }
+        
+        TreeElement newNode = (TreeElement) newBlock.getNode();
+        newNode.rawRemove();
+        ((TreeElement) block.getNode()).rawReplaceWithList(newNode);
+        
+        jetFile.subtreeChanged();
+        
+        LightVirtualFile virtualFile = (LightVirtualFile) jetFile.getVirtualFile();
+        virtualFile.setContent(null, new PsiTextSequence(jetFile), false);
+        
+        return true;
+    }
+    
+    /**
+     * Applies the change of the file text to the tree
+     * 
+     * @return {@code false} if the change cannot be reparsed incrementally and the file should be reparsed fully 
+     */
+    public static boolean reparse(@NotNull JetFile jetFile, @NotNull String newText, @NotNull ChangedRange range) {
+        PsiElement block = findBlockToReparse(jetFile, range, newText.length());
+        if (block == null) {
+            return false;
+        }
+        
+        String newBlockText = getNewBlockRange(block, range).substring(newText);
+        return reparseBlock(jetFile, block, newBlockText);
+    }
+    
+    @Nullable
+    private static PsiElement findEnclosingBlock(@NotNull JetFile jetFile, @NotNull ChangedRange range) {
+        PsiElement startElement = jetFile.findElementAt(range.getStartOffset());
+        PsiElement endElement = jetFile.findElementAt(Math.max(range.getStartOffset(), range.getOldEndOffset() - 1));
+        if (startElement == null || endElement == null) {
+            return null;
+        }
+        
+        PsiElement element = PsiTreeUtil.findCommonParent(startElement, endElement);
+        while (element != null && !(element instanceof JetFile)) {
+            if (isReparseableBlock(element)) {
+                TextRange blockRange = element.getTextRange();
+                // Changed range should not touch braces of the block
+                if (blockRange.getStartOffset() < range.getStartOffset() && range.getOldEndOffset() < blockRange.getEndOffset()) {
+                    return element;
+                }
+            }
+            
+            element = element.getParent();
+        }
+        
+        return null;
+    }
+    
+    private static boolean isReparseableBlock(@NotNull PsiElement element) {
+        if (element instanceof JetBlockExpression) {
+            ASTNode firstChild = element.getNode().getFirstChildNode();
+            return !(element.getParent() instanceof JetFunctionLiteral) && 
+                    firstChild != null && firstChild.getElementType() == JetTokens.LBRACE && 
+                    KotlinCodeBlocks.isInCodeBlock(element);
+        }
+        
+        return element instanceof JetFunctionLiteralExpression && KotlinCodeBlocks.isInCodeBlock(element);
+    }
+    
+    @Nullable
+    private static PsiElement parseBlock(@NotNull JetFile jetFile, @NotNull PsiElement oldBlock, @NotNull String newBlockText) {
+        String prefix = getContextPrefix(oldBlock);
+        JetFile contextFile = new JetPsiFactory(jetFile.getProject()).createFile(prefix + newBlockText);
+        
+        PsiElement newBlock = PsiTreeUtil.findElementOfClassAtRange(contextFile, prefix.length(), 
+                prefix.length() + newBlockText.length(), oldBlock.getClass());
+        if (newBlock == null || !newBlock.getTextRange().equals(new TextRange(prefix.length(), prefix.length() + newBlockText.length()))) {
+            return null; // Block boundaries were changed
+        }
+        
+        // Unterminated comment or string swallows the closing brace, so the rest of the file would be parsed differently
+        if (!endsWithOwnBrace(newBlock) || hasErrorsAtEnd(newBlock)) {
+            return null;
+        }
+        
+        return newBlock;
+    }
+    
+    private static boolean endsWithOwnBrace(@NotNull PsiElement block) {
+        PsiElement braceOwner = block instanceof JetFunctionLiteralExpression ? 
+                ((JetFunctionLiteralExpression) block).getFunctionLiteral() : block;
+        ASTNode lastChild = braceOwner.getNode().getLastChildNode();
+        return lastChild != null && lastChild.getElementType() == JetTokens.RBRACE;
+    }
+    
+    /**
+     * Parser recovery which reaches the closing brace means that the block could consume the following text 
+     * in the whole file
+     */
+    private static boolean hasErrorsAtEnd(@NotNull PsiElement block) {
+        int closingBraceOffset = block.getTextRange().getEndOffset() - 1;
+        for (PsiErrorElement errorElement : PsiTreeUtil.findChildrenOfType(block, PsiErrorElement.class)) {
+            if (errorElement.getTextRange().getEndOffset() >= closingBraceOffset) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Text of the file computed from psi only when somebody asks for the content of the virtual file
+     */
+    private static class PsiTextSequence implements CharSequence {
+        private final JetFile jetFile;
+        private String text = null;
+        
+        PsiTextSequence(@NotNull JetFile jetFile) {
+            this.jetFile = jetFile;
+        }
+        
+        @Override
+        public int length() {
+            return text != null ? text.length() : jetFile.getTextLength();
+        }
+        
+        @Override
+        public char charAt(int index) {
+            return toString().charAt(index);
+        }
+        
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+        
+        @Override
+        public synchronized String toString() {
+            if (text == null) {
+                text = jetFile.getText();
+            }
+            
+            return text;
+        }
+    }
+    
+    @NotNull
+    private static String getContextPrefix(@NotNull PsiElement block) {
+        return block instanceof JetFunctionLiteralExpression ? FUNCTION_LITERAL_PREFIX : BLOCK_PREFIX;
+    }
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.builder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.psi.JetFile;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+
+/**
+ * Cache of parsed files bounded by the number of files and by the estimated size of their psi trees.
+ * Least recently used files are evicted first, pinned files (opened in editors) are never evicted.
+ * Trees retained by analyses (see {@link #retain}) are not evicted either: analysis caches and sessions would keep 
+ * them alive anyway, so eviction would free nothing and only cause a reparse and a full re-resolve. 
+ * Their memory is released when the analysis drops them, e.g. when an idle environment is evicted.
+ * Budgets can be configured with {@code kotlin.psi.cache.maxFiles} and {@code kotlin.psi.cache.maxSize} (in bytes)
+ * system properties.
+ */
+public class KotlinPsiCache {
+    
+    public static final String MAX_FILES_PROPERTY = "kotlin.psi.cache.maxFiles";
+    public static final String MAX_SIZE_PROPERTY = "kotlin.psi.cache.maxSize";
+    
+    // Rough average of psi tree retained size per one character of source code
+    private static final int ESTIMATED_BYTES_PER_CHAR = 40;
+    
+    private final ConcurrentMap<IFile, CachedFile> cachedFiles = new ConcurrentHashMap<>();
+    private final Multiset<IFile> pinnedFiles = ConcurrentHashMultiset.create();
+    private final Multiset<JetFile> retainedFiles = ConcurrentHashMultiset.create();
+    
+    private final long maxFiles;
+    private final long maxSize;
+    
+    private final AtomicLong accessClock = new AtomicLong();
+    private final AtomicLong estimatedSize = new AtomicLong();
+    
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    
+    KotlinPsiCache() {
+        this(Long.getLong(MAX_FILES_PROPERTY, Long.MAX_VALUE),
+                Long.getLong(MAX_SIZE_PROPERTY, Runtime.getRuntime().maxMemory() / 4));
+    }
+    
+    public KotlinPsiCache(long maxFiles, long maxSize) {
+        this.maxFiles = maxFiles;
+        this.maxSize = maxSize;
+    }
+    
+    @Nullable
+    public Future<JetFile> get(@NotNull IFile file) {
+        CachedFile cachedFile = cachedFiles.get(file);
+        if (cachedFile == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        
+        hitCount.incrementAndGet();
+        cachedFile.lastAccess = accessClock.incrementAndGet();
+        
+        return cachedFile.parsedFile;
+    }
+    
+    @Nullable
+    public Future<JetFile> putIfAbsent(@NotNull IFile file, @NotNull Future<JetFile> parsedFile) {
+        CachedFile previous = cachedFiles.putIfAbsent(file, new CachedFile(parsedFile, accessClock.incrementAndGet()));
+        return previous != null ? previous.parsedFile : null;
+    }
+    
+    public boolean replace(@NotNull IFile file, @NotNull Future<JetFile> expected, @NotNull Future<JetFile> parsedFile) {
+        CachedFile current = cachedFiles.get(file);
+        if (current == null || current.parsedFile != expected) {
+            return false;
+        }
+        
+        if (cachedFiles.replace(file, current, new CachedFile(parsedFile, accessClock.incrementAndGet()))) {
+            release(current);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    public void remove(@NotNull IFile file) {
+        CachedFile removed = cachedFiles.remove(file);
+        if (removed != null) {
+            release(removed);
+        }
+    }
+    
+    void remove(@NotNull IFile file, @NotNull Future<JetFile> parsedFile) {
+        CachedFile current = cachedFiles.get(file);
+        if (current != null && current.parsedFile == parsedFile && cachedFiles.remove(file, current)) {
+            release(current);
+        }
+    }
+    
+    public void parsed(@NotNull IFile file, @NotNull Future<JetFile> parsedFile, @NotNull JetFile jetFile) {
+        CachedFile current = cachedFiles.get(file);
+        if (current == null || current.parsedFile != parsedFile) {
+            return;
+        }
+        
+        long size = (long) jetFile.getTextLength() * ESTIMATED_BYTES_PER_CHAR;
+        if (current.size.compareAndSet(0, size)) {
+            estimatedSize.addAndGet(size);
+        }
+        
+        if (isOverBudget()) {
+            evict();
+        }
+    }
+    
+    public void pin(@NotNull IFile file) {
+        pinnedFiles.add(file);
+    }
+    
+    public void unpin(@NotNull IFile file) {
+        pinnedFiles.remove(file);
+    }
+    
+    public boolean isPinned(@NotNull IFile file) {
+        return pinnedFiles.contains(file);
+    }
+    
+    /**
+     * Marks the tree as referenced by an analysis, every call should be paired with {@link #release}
+     */
+    public void retain(@NotNull JetFile jetFile) {
+        retainedFiles.add(jetFile);
+    }
+    
+    public void release(@NotNull JetFile jetFile) {
+        retainedFiles.remove(jetFile);
+    }
+    
+    /**
+     * Returns modification stamp of the editor document from which psi was built
+     */
+    long getDocumentStamp(@NotNull IFile file, @NotNull Future<JetFile> parsedFile) {
+        CachedFile current = cachedFiles.get(file);
+        return current != null && current.parsedFile == parsedFile ? current.documentStamp : IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+    }
+    
+    void setDocumentStamp(@NotNull IFile file, @NotNull Future<JetFile> parsedFile, long documentStamp) {
+        CachedFile current = cachedFiles.get(file);
+        if (current != null && current.parsedFile == parsedFile) {
+            current.documentStamp = documentStamp;
+        }
+    }
+    
+    public long getEstimatedSize(@NotNull IFile file) {
+        CachedFile cachedFile = cachedFiles.get(file);
+        return cachedFile != null ? Math.max(cachedFile.size.get(), 0) : 0;
+    }
+    
+    public long getHitCount() {
+        return hitCount.get();
+    }
+    
+    public long getMissCount() {
+        return missCount.get();
+    }
+    
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+    
+    public int getCachedFilesCount() {
+        return cachedFiles.size();
+    }
+    
+    public long getEstimatedSize() {
+        return estimatedSize.get();
+    }
+    
+    private boolean isOverBudget() {
+        return cachedFiles.size() > maxFiles || estimatedSize.get() > maxSize;
+    }
+    
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return; // Somebody is already evicting
+        }
+        
+        try {
+            List<Map.Entry<IFile, CachedFile>> candidates = new ArrayList<>(cachedFiles.entrySet());
+            Collections.sort(candidates, new Comparator<Map.Entry<IFile, CachedFile>>() {
+                @Override
+                public int compare(Map.Entry<IFile, CachedFile> first, Map.Entry<IFile, CachedFile> second) {
+                    return Long.compare(first.getValue().lastAccess, second.getValue().lastAccess);
+                }
+            });
+            
+            for (Map.Entry<IFile, CachedFile> candidate : candidates) {
+                if (!isOverBudget()) break;
+                
+                IFile file = candidate.getKey();
+                CachedFile cachedFile = candidate.getValue();
+                if (pinnedFiles.contains(file) || !cachedFile.parsedFile.isDone() || isRetained(cachedFile)) continue;
+                
+                if (cachedFiles.remove(file, cachedFile)) {
+                    release(cachedFile);
+                    evictionCount.incrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    private boolean isRetained(@NotNull CachedFile cachedFile) {
+        try {
+            JetFile jetFile = cachedFile.parsedFile.get();
+            return jetFile != null && retainedFiles.contains(jetFile);
+        } catch (InterruptedException | ExecutionException e) {
+            return false;
+        }
+    }
+    
+    private void release(@NotNull CachedFile cachedFile) {
+        long size = cachedFile.size.getAndSet(-1);
+        if (size > 0) {
+            estimatedSize.addAndGet(-size);
+        }
+    }
+    
+    private static class CachedFile {
+        final Future<JetFile> parsedFile;
+        final AtomicLong size = new AtomicLong(0);
+        volatile long lastAccess;
+        volatile long documentStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+        
+        CachedFile(@NotNull Future<JetFile> parsedFile, long lastAccess) {
+            this.parsedFile = parsedFile;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -18,35 +18,49 @@ package org.jetbrains.kotlin.core.builder;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.index.KotlinDeclarationIndex;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.Phase;
 import org.jetbrains.kotlin.idea.JetFileType;
 import org.jetbrains.kotlin.idea.JetLanguage;
 import org.jetbrains.kotlin.psi.JetFile;
 
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.util.text.StringUtilRt;
 import com.intellij.openapi.vfs.CharsetToolkit;
-import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFileFactory;
 import com.intellij.psi.impl.PsiFileFactoryImpl;
 import com.intellij.testFramework.LightVirtualFile;
@@ -55,10 +69,15 @@ public class KotlinPsiManager {
     
     public static final KotlinPsiManager INSTANCE = new KotlinPsiManager();
     
-    private final Map<IProject, Set<IFile>> projectFiles = new HashMap<>();
-    private final Map<IFile, JetFile> cachedJetFiles = new HashMap<>();
+    // Text of incrementally reparsed files is compared with the document only when assertions are enabled
+    private static final boolean CHECK_REPARSED_TEXT = KotlinPsiManager.class.desiredAssertionStatus();
     
-    private final Object mapOperationLock = new Object();
+    private final ConcurrentMap<IProject, Set<IFile>> projectFiles = new ConcurrentHashMap<>();
+    private final KotlinPsiCache cachedJetFiles = new KotlinPsiCache();
+    private final AtomicLong modificationCount = new AtomicLong();
+    
+    // Analyses read psi under the read lock, incremental reparsing changes trees in place only under the write lock
+    private final ReentrantReadWriteLock psiLock = new ReentrantReadWriteLock();
     
     private KotlinPsiManager() {
     }
@@ -87,72 +106,179 @@ public class KotlinPsiManager {
     }
     
     public void removeProject(@NotNull IProject project) {
-        synchronized (mapOperationLock) {
-            Set<IFile> files = getFilesByProject(project);
-            projectFiles.remove(project);
+        KotlinSourceRoots.invalidate(project);
+        
+        Set<IFile> files = projectFiles.remove(project);
+        if (files != null) {
             for (IFile file : files) {
                 cachedJetFiles.remove(file);
             }
         }
+        modificationCount.incrementAndGet();
     }
     
     public void addFile(@NotNull IFile file) {
-        synchronized (mapOperationLock) {
-            assert !exists(file) : "File(" + file.getName() + ") is already added";
-            
-            IProject project = file.getProject();
-            if (!projectFiles.containsKey(project)) {
-                projectFiles.put(project, new HashSet<IFile>());
+        assert !exists(file) : "File(" + file.getName() + ") is already added";
+        
+        IProject project = file.getProject();
+        Set<IFile> files = projectFiles.get(project);
+        if (files == null) {
+            Set<IFile> newFiles = Collections.newSetFromMap(new ConcurrentHashMap<IFile, Boolean>());
+            files = projectFiles.putIfAbsent(project, newFiles);
+            if (files == null) {
+                files = newFiles;
             }
-            
-            projectFiles.get(project).add(file);
         }
+        
+        files.add(file);
+        modificationCount.incrementAndGet();
     }
     
     public void removeFile(@NotNull IFile file) {
-        synchronized (mapOperationLock) {
-            assert exists(file) : "File(" + file.getName() + ") does not contain in the psiFiles";
-            
-            IProject project = file.getProject();
-            
-            cachedJetFiles.remove(file);
-            projectFiles.get(project).remove(file);
+        assert exists(file) : "File(" + file.getName() + ") does not contain in the psiFiles";
+        
+        Set<IFile> files = projectFiles.get(file.getProject());
+        if (files != null) {
+            files.remove(file);
         }
+        cachedJetFiles.remove(file);
+        modificationCount.incrementAndGet();
     }
     
     @NotNull
     public Set<IFile> getFilesByProject(@Nullable IProject project) {
-        synchronized (mapOperationLock) {
-            if (projectFiles.containsKey(project)) {
-                return Collections.unmodifiableSet(projectFiles.get(project));
-            }
-            
-            return Collections.emptySet();
+        Set<IFile> files = project != null ? projectFiles.get(project) : null;
+        if (files != null) {
+            return Collections.unmodifiableSet(files);
         }
+        
+        return Collections.emptySet();
     }
     
     @NotNull
-    public JetFile getParsedFile(@NotNull IFile file) {
-        synchronized (mapOperationLock) {
-            assert exists(file) : "File(" + file.getName() + ") does not contain in the psiFiles";
+    public JetFile getParsedFile(@NotNull final IFile file) {
+        assert exists(file) : "File(" + file.getName() + ") does not contain in the psiFiles";
+        
+        Future<JetFile> parsedFile = cachedJetFiles.get(file);
+        if (parsedFile == null) {
+            FutureTask<JetFile> parseTask = new FutureTask<>(new Callable<JetFile>() {
+                @Override
+                public JetFile call() {
+                    return parseFile(file);
+                }
+            });
             
-            if (!cachedJetFiles.containsKey(file)) {
-                JetFile jetFile = parseFile(file);
-                cachedJetFiles.put(file, jetFile);
+            parsedFile = cachedJetFiles.putIfAbsent(file, parseTask);
+            if (parsedFile == null) {
+                modificationCount.incrementAndGet();
+                return runParsing(file, parseTask);
             }
-            
-            return cachedJetFiles.get(file);
         }
+        
+        return waitForParsedFile(file, parsedFile);
     }
     
-    public boolean exists(@NotNull IFile file) {
-        synchronized (mapOperationLock) {
-            IProject project = file.getProject();
-            if (project == null) return false;
-            
-            Set<IFile> files = projectFiles.get(project);
-            return files != null ? files.contains(file) : false;
+    /**
+     * Protects psi of the file from eviction, e.g. while it is opened in an editor
+     */
+    public void pinFile(@NotNull IFile file) {
+        cachedJetFiles.pin(file);
+    }
+    
+    public void unpinFile(@NotNull IFile file) {
+        cachedJetFiles.unpin(file);
+    }
+    
+    /**
+     * Protects psi from eviction while an analysis references it, eviction would not free memory of such files
+     */
+    public void retainParsedFiles(@NotNull Collection<JetFile> jetFiles) {
+        for (JetFile jetFile : jetFiles) {
+            cachedJetFiles.retain(jetFile);
+        }
+    }
+    
+    public void releaseParsedFiles(@NotNull Collection<JetFile> jetFiles) {
+        for (JetFile jetFile : jetFiles) {
+            cachedJetFiles.release(jetFile);
+        }
+    }
+    
+    public boolean hasPinnedFiles(@NotNull IProject project) {
+        for (IFile file : getFilesByProject(project)) {
+            if (cachedJetFiles.isPinned(file)) {
+                return true;
+            }
         }
+        
+        return false;
+    }
+    
+    /**
+     * Drops parsed files of the project, they will be parsed again on the next request. 
+     * Called when environment of the project is disposed, as psi holds the project it was created for.
+     */
+    public void removeParsedFiles(@NotNull IProject project) {
+        for (IFile file : getFilesByProject(project)) {
+            cachedJetFiles.remove(file);
+        }
+        modificationCount.incrementAndGet();
+    }
+    
+    /**
+     * Analyses should hold this lock while they read psi, so trees are not changed in place under them. 
+     * Incremental reparsing does not wait for it, files are parsed into new trees while it is held.
+     */
+    @NotNull
+    public Lock getPsiReadLock() {
+        return psiLock.readLock();
+    }
+    
+    /**
+     * Returns counter which is incremented whenever a file is added or removed, or its psi is replaced by a new tree.
+     * Changes made in place by incremental reparsing do not affect it, they change modification stamp of the file.
+     */
+    public long getModificationCount() {
+        return modificationCount.get();
+    }
+    
+    public long getEstimatedPsiSize(@NotNull IProject project) {
+        long size = 0;
+        for (IFile file : getFilesByProject(project)) {
+            size += cachedJetFiles.getEstimatedSize(file);
+        }
+        
+        return size;
+    }
+    
+    @NotNull
+    public KotlinPsiCache getCache() {
+        return cachedJetFiles;
+    }
+    
+    /**
+     * Whether the tree is the current parsed tree of the file and not, e.g., a copy parsed from edited text. 
+     * Does not wait for the file being parsed.
+     */
+    public boolean isParsedFile(@NotNull IFile file, @NotNull JetFile jetFile) {
+        Future<JetFile> parsedFile = cachedJetFiles.get(file);
+        if (parsedFile == null || !parsedFile.isDone()) {
+            return false;
+        }
+        
+        try {
+            return parsedFile.get() == jetFile;
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+            return false;
+        }
+    }
+    
+    public boolean exists(@NotNull IFile file) {
+        IProject project = file.getProject();
+        if (project == null) return false;
+        
+        Set<IFile> files = projectFiles.get(project);
+        return files != null ? files.contains(file) : false;
     }
     
     @NotNull
@@ -180,50 +306,199 @@ public class KotlinPsiManager {
             return false;
         }
         
-        IClasspathEntry[] classpathEntries = javaProject.getRawClasspath();
-        String resourceRoot = resource.getFullPath().segment(1);
-        for (IClasspathEntry classpathEntry : classpathEntries) {
-            if (classpathEntry.getEntryKind() == IClasspathEntry.CPE_SOURCE) {
-                if (resourceRoot.equals(classpathEntry.getPath().segment(1))) {
-                    return true;
-                }
-            }
-        }
-        
-        return false;
+        return KotlinSourceRoots.getSourceRoots(javaProject).contains(resource);
     }
     
     @Nullable
     private JetFile parseFile(@NotNull IFile file) {
-        synchronized (mapOperationLock) {
-            try {
-                File ioFile = new File(file.getRawLocation().toOSString());
-                return parseText(FileUtil.loadFile(ioFile, null, true), file);
-            } catch (IOException e) {
-                KotlinLogger.logAndThrow(e);
+        try {
+            long modificationStamp = file.getModificationStamp();
+            File ioFile = new File(file.getRawLocation().toOSString());
+            String fileText = FileUtil.loadFile(ioFile, null, true);
+            
+            JetFile jetFile = parseText(fileText, file);
+            if (jetFile != null) {
+                KotlinDeclarationIndex.INSTANCE.update(file, modificationStamp, fileText, jetFile);
             }
+            
+            return jetFile;
+        } catch (IOException e) {
+            KotlinLogger.logAndThrow(e);
         }
         
         return null;
     }
     
     @NotNull
-    private JetFile getParsedFile(@NotNull IFile file, @NotNull String expectedSourceCode) {
-        synchronized (mapOperationLock) {
-            updatePsiFile(file, expectedSourceCode);
-            return getParsedFile(file);
+    private JetFile getParsedFile(@NotNull IFile file, @NotNull KotlinDocumentTracker documentTracker) {
+        assert exists(file): "File(" + file.getName() + ") does not contain in the psiFiles";
+        
+        Future<JetFile> currentParsedFile = cachedJetFiles.get(file);
+        if (currentParsedFile != null && currentParsedFile.isDone()) {
+            long psiStamp = cachedJetFiles.getDocumentStamp(file, currentParsedFile);
+            if (psiStamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+                if (psiStamp == documentTracker.getModificationStamp()) {
+                    return waitForParsedFile(file, currentParsedFile);
+                }
+                
+                JetFile reparsedFile = reparseIncrementally(file, currentParsedFile, psiStamp, documentTracker);
+                if (reparsedFile != null) {
+                    return reparsedFile;
+                }
+            }
         }
+        
+        String sourceCode;
+        long modificationStamp;
+        synchronized (documentTracker) {
+            sourceCode = documentTracker.getDocument().get();
+            // Text of the document which is being changed can be ahead of its stamp
+            modificationStamp = documentTracker.isChanging() ? 
+                    IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP : documentTracker.getModificationStamp();
+            documentTracker.reset(modificationStamp);
+        }
+        
+        JetFile jetFile = getParsedFile(file, sourceCode);
+        
+        Future<JetFile> parsedFile = cachedJetFiles.get(file);
+        if (parsedFile != null && parsedFile.isDone() && waitForParsedFile(file, parsedFile) == jetFile) {
+            cachedJetFiles.setDocumentStamp(file, parsedFile, modificationStamp);
+        }
+        
+        return jetFile;
     }
     
-    private void updatePsiFile(@NotNull IFile file, @NotNull String sourceCode) {
-        String sourceCodeWithouCR = StringUtilRt.convertLineSeparators(sourceCode);
-        synchronized (mapOperationLock) {
-            assert exists(file): "File(" + file.getName() + ") does not contain in the psiFiles";
+    @NotNull
+    private JetFile getParsedFile(@NotNull final IFile file, @NotNull String expectedSourceCode) {
+        assert exists(file): "File(" + file.getName() + ") does not contain in the psiFiles";
+        
+        final String sourceCodeWithouCR = StringUtilRt.convertLineSeparators(expectedSourceCode);
+        while (true) {
+            Future<JetFile> currentParsedFile = cachedJetFiles.get(file);
+            if (currentParsedFile != null) {
+                JetFile jetFile = waitForParsedFile(file, currentParsedFile);
+                if (jetFile.getText().equals(sourceCodeWithouCR)) {
+                    return jetFile;
+                }
+            }
+            
+            FutureTask<JetFile> parseTask = new FutureTask<>(new Callable<JetFile>() {
+                @Override
+                public JetFile call() {
+                    return parseText(sourceCodeWithouCR, file);
+                }
+            });
             
-            PsiFile currentParsedFile = getParsedFile(file);
-            if (!currentParsedFile.getText().equals(sourceCodeWithouCR)) {
-                JetFile jetFile = parseText(sourceCodeWithouCR, file);
-                cachedJetFiles.put(file, jetFile);
+            boolean installed = currentParsedFile != null ? 
+                    cachedJetFiles.replace(file, currentParsedFile, parseTask) :
+                    cachedJetFiles.putIfAbsent(file, parseTask) == null;
+            if (installed) {
+                modificationCount.incrementAndGet();
+                return runParsing(file, parseTask);
+            }
+            
+            // Another thread has changed psi for this file, check its text again
+        }
+    }
+    
+    /**
+     * Changes psi in place, so it is done only for files opened in editors where the tree is read by the editor itself, 
+     * and only while no analysis reads psi
+     */
+    @Nullable
+    private JetFile reparseIncrementally(@NotNull IFile file, @NotNull Future<JetFile> parsedFile, long psiStamp, 
+            @NotNull KotlinDocumentTracker documentTracker) {
+        if (!cachedJetFiles.isPinned(file)) {
+            return null;
+        }
+        
+        Lock writeLock = psiLock.writeLock();
+        if (!writeLock.tryLock()) {
+            return null; // The file will be parsed into a new tree, which is not read by anybody yet
+        }
+        
+        try {
+            JetFile jetFile = waitForParsedFile(file, parsedFile);
+            
+            PsiElement block;
+            String newBlockText;
+            String expectedText = null;
+            long modificationStamp;
+            synchronized (documentTracker) {
+                ChangedRange changedRange = documentTracker.getChangedRange();
+                if (documentTracker.isChanging() || changedRange == null || 
+                        documentTracker.getBaseModificationStamp() != psiStamp) {
+                    return null;
+                }
+                
+                IDocument document = documentTracker.getDocument();
+                block = KotlinIncrementalReparser.findBlockToReparse(jetFile, changedRange, document.getLength());
+                if (block == null) {
+                    return null;
+                }
+                
+                try {
+                    TextRange newBlockRange = KotlinIncrementalReparser.getNewBlockRange(block, changedRange);
+                    newBlockText = document.get(newBlockRange.getStartOffset(), newBlockRange.getLength());
+                } catch (BadLocationException e) {
+                    return null;
+                }
+                
+                if (CHECK_REPARSED_TEXT) {
+                    expectedText = document.get();
+                }
+                
+                // Text of the block and the stamp are taken together, later changes will be tracked from this stamp
+                modificationStamp = documentTracker.getModificationStamp();
+                documentTracker.reset(modificationStamp);
+            }
+            
+            if (!KotlinIncrementalReparser.reparseBlock(jetFile, block, newBlockText)) {
+                return null;
+            }
+            
+            if (expectedText != null && !jetFile.getText().equals(expectedText)) {
+                KotlinLogger.logError("Incrementally reparsed text differs from the document: " + file.getName(), null);
+                return null;
+            }
+            
+            cachedJetFiles.setDocumentStamp(file, parsedFile, modificationStamp);
+            return jetFile;
+        } catch (RuntimeException e) {
+            KotlinLogger.logError("Incremental reparse failed for " + file.getName(), e);
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    @NotNull
+    private JetFile runParsing(@NotNull IFile file, @NotNull FutureTask<JetFile> parseTask) {
+        parseTask.run();
+        JetFile jetFile = waitForParsedFile(file, parseTask);
+        cachedJetFiles.parsed(file, parseTask, jetFile);
+        
+        return jetFile;
+    }
+    
+    @NotNull
+    private JetFile waitForParsedFile(@NotNull IFile file, @NotNull Future<JetFile> parsedFile) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return parsedFile.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    cachedJetFiles.remove(file, parsedFile);
+                    KotlinLogger.logAndThrow(e.getCause());
+                    throw new IllegalStateException(e);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
     }
@@ -235,13 +510,18 @@ public class KotlinPsiManager {
         IJavaProject javaProject = JavaCore.create(file.getProject());
         Project project = KotlinEnvironment.getEnvironment(javaProject).getProject();
         
-        String path = file.getRawLocation().toOSString();
-        LightVirtualFile virtualFile = new LightVirtualFile(path, JetLanguage.INSTANCE, text);
-        virtualFile.setCharset(CharsetToolkit.UTF8_CHARSET);
-        
-        PsiFileFactoryImpl psiFileFactory = (PsiFileFactoryImpl) PsiFileFactory.getInstance(project);
-        
-        return (JetFile) psiFileFactory.trySetupPsiForFile(virtualFile, JetLanguage.INSTANCE, true, false);
+        long start = System.nanoTime();
+        try {
+            String path = file.getRawLocation().toOSString();
+            LightVirtualFile virtualFile = new LightVirtualFile(path, JetLanguage.INSTANCE, text);
+            virtualFile.setCharset(CharsetToolkit.UTF8_CHARSET);
+            
+            PsiFileFactoryImpl psiFileFactory = (PsiFileFactoryImpl) PsiFileFactory.getInstance(project);
+            
+            return (JetFile) psiFileFactory.trySetupPsiForFile(virtualFile, JetLanguage.INSTANCE, true, false);
+        } finally {
+            KotlinPerformanceStatistics.INSTANCE.record(Phase.PARSE, start);
+        }
     }
     
     @Nullable
@@ -253,4 +533,13 @@ public class KotlinPsiManager {
     public static JetFile getKotlinFileIfExist(@NotNull IFile file, @NotNull String sourceCode) {
         return INSTANCE.exists(file) ? INSTANCE.getParsedFile(file, sourceCode) : null;
     }
+    
+    /**
+     * Synchronizes psi with the tracked editor document. Text of the document is copied only if psi is out of sync
+     * and the changed block cannot be reparsed incrementally
+     */
+    @Nullable
+    public static JetFile getKotlinFileIfExist(@NotNull IFile file, @NotNull KotlinDocumentTracker documentTracker) {
+        return INSTANCE.exists(file) ? INSTANCE.getParsedFile(file, documentTracker) : null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.builder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.internal.core.util.Util;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Source folders of a project arranged in a trie by path segments. Membership of a resource is answered in
+ * O(path depth) by the innermost source folder containing it, taking its inclusion and exclusion patterns into account.
+ * Models are cached per project and must be invalidated when the classpath of the project changes.
+ */
+public class KotlinSourceRoots {
+    
+    private static final ConcurrentMap<IProject, KotlinSourceRoots> cachedRoots = new ConcurrentHashMap<>();
+    private static final AtomicLong generation = new AtomicLong();
+    
+    private final TrieNode rootNode = new TrieNode();
+    private final List<IPath> topLevelRoots = Lists.newArrayList();
+    
+    public KotlinSourceRoots(@NotNull IClasspathEntry[] classpathEntries) {
+        List<IClasspathEntry> sourceEntries = Lists.newArrayList();
+        for (IClasspathEntry classpathEntry : classpathEntries) {
+            if (classpathEntry.getEntryKind() == IClasspathEntry.CPE_SOURCE) {
+                sourceEntries.add(classpathEntry);
+                addSourceRoot(classpathEntry);
+            }
+        }
+        
+        for (IClasspathEntry sourceEntry : sourceEntries) {
+            if (!isNested(sourceEntry.getPath())) {
+                topLevelRoots.add(sourceEntry.getPath());
+            }
+        }
+    }
+    
+    @NotNull
+    public static KotlinSourceRoots getSourceRoots(@NotNull IJavaProject javaProject) throws JavaModelException {
+        IProject project = javaProject.getProject();
+        KotlinSourceRoots sourceRoots = cachedRoots.get(project);
+        if (sourceRoots != null) {
+            return sourceRoots;
+        }
+        
+        long expectedGeneration = generation.get();
+        sourceRoots = new KotlinSourceRoots(javaProject.getRawClasspath());
+        
+        // Do not cache a model which could have been built from the classpath invalidated in the meantime
+        if (generation.get() == expectedGeneration) {
+            KotlinSourceRoots previous = cachedRoots.putIfAbsent(project, sourceRoots);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        
+        return sourceRoots;
+    }
+    
+    public static void invalidate(@NotNull IProject project) {
+        generation.incrementAndGet();
+        cachedRoots.remove(project);
+    }
+    
+    public boolean contains(@NotNull IResource resource) {
+        IPath path = resource.getFullPath();
+        SourceRoot sourceRoot = findInnermostRoot(path);
+        if (sourceRoot == null) {
+            return false;
+        }
+        
+        return !Util.isExcluded(path, sourceRoot.inclusionPatterns, sourceRoot.exclusionPatterns, 
+                resource.getType() == IResource.FOLDER);
+    }
+    
+    /**
+     * Returns paths of source folders which are not nested in other source folders
+     */
+    @NotNull
+    public List<IPath> getTopLevelRoots() {
+        return Collections.unmodifiableList(topLevelRoots);
+    }
+    
+    @Nullable
+    private SourceRoot findInnermostRoot(@NotNull IPath path) {
+        SourceRoot innermostRoot = null;
+        TrieNode node = rootNode;
+        for (int i = 0; i < path.segmentCount() - 1; i++) {
+            node = node.children.get(path.segment(i));
+            if (node == null) {
+                break;
+            }
+            
+            if (node.sourceRoot != null) {
+                innermostRoot = node.sourceRoot;
+            }
+        }
+        
+        return innermostRoot;
+    }
+    
+    private boolean isNested(@NotNull IPath path) {
+        TrieNode node = rootNode;
+        for (int i = 0; i < path.segmentCount() - 1; i++) {
+            node = node.children.get(path.segment(i));
+            if (node == null) {
+                return false;
+            }
+            
+            if (node.sourceRoot != null) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private void addSourceRoot(@NotNull IClasspathEntry sourceEntry) {
+        IPath path = sourceEntry.getPath();
+        TrieNode node = rootNode;
+        for (String segment : path.segments()) {
+            TrieNode child = node.children.get(segment);
+            if (child == null) {
+                child = new TrieNode();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+        
+        node.sourceRoot = new SourceRoot(
+                toFullPatterns(path, sourceEntry.getInclusionPatterns()), 
+                toFullPatterns(path, sourceEntry.getExclusionPatterns()));
+    }
+    
+    @Nullable
+    private static char[][] toFullPatterns(@NotNull IPath rootPath, @NotNull IPath[] patterns) {
+        if (patterns.length == 0) {
+            return null;
+        }
+        
+        char[][] fullPatterns = new char[patterns.length][];
+        for (int i = 0; i < patterns.length; i++) {
+            fullPatterns[i] = rootPath.append(patterns[i]).toString().toCharArray();
+        }
+        
+        return fullPatterns;
+    }
+    
+    private static class TrieNode {
+        final Map<String, TrieNode> children = Maps.newHashMap();
+        SourceRoot sourceRoot = null;
+    }
+    
+    private static class SourceRoot {
+        final char[][] inclusionPatterns;
+        final char[][] exclusionPatterns;
+        
+        SourceRoot(@Nullable char[][] inclusionPatterns, @Nullable char[][] exclusionPatterns) {
+            this.inclusionPatterns = inclusionPatterns;
+            this.exclusionPatterns = exclusionPatterns;
+        }
+    }
+}
@@ -22,6 +22,10 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.JavaCore;
+import org.jetbrains.kotlin.core.index.KotlinDeclarationIndex;
+import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.core.model.KotlinNature;
 
 public class ProjectChangeListener implements IResourceDeltaVisitor {
 
@@ -34,9 +38,21 @@ public class ProjectChangeListener implements IResourceDeltaVisitor {
                 if (delta.getKind() != IResourceDelta.CHANGED) {
                     KotlinPsiManager.INSTANCE.updateProjectPsiSources(file, delta.getKind());
                 }
+                
+                if (delta.getKind() == IResourceDelta.REMOVED || (delta.getFlags() & IResourceDelta.CONTENT) != 0) {
+                    KotlinDeclarationIndex.INSTANCE.remove(file);
+                }
             }
         } else if (resource instanceof IProject) {
-            KotlinPsiManager.INSTANCE.updateProjectPsiSources((IProject) resource, delta.getKind());
+            IProject project = (IProject) resource;
+            KotlinPsiManager.INSTANCE.updateProjectPsiSources(project, delta.getKind());
+            
+            boolean openStateChanged = delta.getKind() == IResourceDelta.ADDED || (delta.getFlags() & IResourceDelta.OPEN) != 0;
+            if (delta.getKind() == IResourceDelta.REMOVED || (openStateChanged && !project.isOpen())) {
+                KotlinEnvironment.disposeEnvironment(JavaCore.create(project));
+            } else if (openStateChanged && KotlinNature.hasKotlinNature(project)) {
+                KotlinEnvironment.scheduleEnvironmentCreation(JavaCore.create(project));
+            }
         }
         
         return true;
@@ -26,9 +26,10 @@ import org.eclipse.jdt.debug.core.IJavaStackFrame;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.index.KotlinDeclarationIndex;
+import org.jetbrains.kotlin.core.index.KotlinFileStub;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.name.FqName;
-import org.jetbrains.kotlin.psi.JetFile;
 
 public class KotlinSourceLookupNavigator {
 	public static final KotlinSourceLookupNavigator INSTANCE = new KotlinSourceLookupNavigator();
@@ -94,8 +95,10 @@ public class KotlinSourceLookupNavigator {
 	private boolean fileMatches(@NotNull IFile kotlinFile, @NotNull FqName packageName, @NotNull String sourceName) {
 		boolean isKotlinSourceFile = kotlinFile.getName().equals(sourceName) && KotlinPsiManager.INSTANCE.exists(kotlinFile);
         if (isKotlinSourceFile) {
-		    JetFile jetFile = KotlinPsiManager.INSTANCE.getParsedFile(kotlinFile);
-		    if (jetFile.getPackageFqName().equalsTo(packageName)) {
+		    KotlinFileStub stub = KotlinDeclarationIndex.INSTANCE.getStub(kotlinFile);
+		    FqName filePackage = stub != null ? stub.getPackageFqName() : 
+		        KotlinPsiManager.INSTANCE.getParsedFile(kotlinFile).getPackageFqName();
+		    if (filePackage.equalsTo(packageName)) {
 		        return true;
 		    }
 		}
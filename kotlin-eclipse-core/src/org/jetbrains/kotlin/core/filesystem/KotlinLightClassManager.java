@@ -30,6 +30,7 @@ import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
 import org.jetbrains.kotlin.core.model.KotlinEnvironment;
 import org.jetbrains.kotlin.core.model.KotlinJavaManager;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler.Priority;
 import org.jetbrains.kotlin.core.utils.ProjectUtils;
 import org.jetbrains.kotlin.descriptors.ClassDescriptor;
 import org.jetbrains.kotlin.load.kotlin.PackageClassUtils;
@@ -109,7 +110,7 @@ public class KotlinLightClassManager {
     
     public List<JetFile> getSourceFiles(@NotNull File file) {
         if (sourceFiles.isEmpty()) {
-            AnalysisResult analysisResult = KotlinAnalysisProjectCache.getInstance(javaProject).getAnalysisResult();
+            AnalysisResult analysisResult = KotlinAnalysisProjectCache.getInstance(javaProject).getAnalysisResult(Priority.LIGHT_CLASSES);
             computeLightClassesSources(analysisResult.getBindingContext());
         }
         
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.index;
+
+import static org.eclipse.core.resources.ResourcesPlugin.getWorkspace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+import org.jetbrains.kotlin.psi.JetFile;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+/**
+ * Persistent index of file stubs. Stubs are stored under the plugin state location and keyed by workspace path,
+ * resource modification stamp and content hash, so after restart package and top-level declarations of unchanged files
+ * are known without parsing. Stubs are rebuilt only when the content of a file changes.
+ */
+public class KotlinDeclarationIndex {
+    
+    public static final KotlinDeclarationIndex INSTANCE = new KotlinDeclarationIndex();
+    
+    private static final String INDEX_FILE_NAME = "declarations.index";
+    private static final int FORMAT_VERSION = 3;
+    
+    private final ConcurrentMap<String, IndexEntry> entries = new ConcurrentHashMap<>();
+    
+    private KotlinDeclarationIndex() {
+    }
+    
+    /**
+     * Returns stub of the file if it was built for the current modification stamp of the file
+     */
+    @Nullable
+    public KotlinFileStub getStub(@NotNull IFile file) {
+        String key = getKey(file);
+        IndexEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        
+        if (!isUpToDate(file, entry)) {
+            entries.remove(key, entry);
+            return null;
+        }
+        
+        return entry.stub;
+    }
+    
+    /**
+     * @param modificationStamp modification stamp of the file taken before its content was read
+     * @param text content of the file which was parsed to {@code jetFile}
+     */
+    public void update(@NotNull IFile file, long modificationStamp, @NotNull String text, @NotNull JetFile jetFile) {
+        if (modificationStamp == IResource.NULL_STAMP) {
+            return;
+        }
+        
+        String key = getKey(file);
+        long contentHash = computeHash(text);
+        IndexEntry entry = entries.get(key);
+        if (entry != null && entry.contentHash == contentHash) {
+            if (entry.modificationStamp != modificationStamp) {
+                entries.put(key, new IndexEntry(entry.stub, modificationStamp, contentHash));
+            }
+            return;
+        }
+        
+        entries.put(key, new IndexEntry(KotlinFileStub.build(jetFile), modificationStamp, contentHash));
+    }
+    
+    public void remove(@NotNull IFile file) {
+        entries.remove(getKey(file));
+    }
+    
+    public void load(@NotNull IPath stateLocation) {
+        File indexFile = stateLocation.append(INDEX_FILE_NAME).toFile();
+        if (!indexFile.exists()) {
+            return;
+        }
+        
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = input.readUTF();
+                long modificationStamp = input.readLong();
+                long contentHash = input.readLong();
+                KotlinFileStub stub = KotlinFileStub.read(input);
+                
+                entries.putIfAbsent(key, new IndexEntry(stub, modificationStamp, contentHash));
+            }
+        } catch (IOException | RuntimeException e) {
+            KotlinLogger.logError("Cannot read Kotlin declarations index, it will be rebuilt", e);
+            entries.clear();
+        }
+    }
+    
+    public void save(@NotNull IPath stateLocation) {
+        File indexFile = stateLocation.append(INDEX_FILE_NAME).toFile();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            Map<String, IndexEntry> snapshot = new HashMap<>(entries);
+            
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(snapshot.size());
+            for (Map.Entry<String, IndexEntry> entry : snapshot.entrySet()) {
+                IndexEntry indexEntry = entry.getValue();
+                output.writeUTF(entry.getKey());
+                output.writeLong(indexEntry.modificationStamp);
+                output.writeLong(indexEntry.contentHash);
+                indexEntry.stub.write(output);
+            }
+        } catch (IOException e) {
+            KotlinLogger.logError("Cannot save Kotlin declarations index", e);
+        }
+    }
+    
+    /**
+     * Checks loaded stubs against the workspace in background. Stubs of files which were touched without changing 
+     * their content, e.g. by a refresh or a checkout, are kept, other stale stubs are dropped
+     */
+    public void scheduleValidation() {
+        Job validationJob = new Job("Validating Kotlin declarations index") {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                monitor.beginTask(getName(), entries.size());
+                try {
+                    for (Map.Entry<String, IndexEntry> entry : entries.entrySet()) {
+                        if (monitor.isCanceled()) {
+                            return Status.CANCEL_STATUS;
+                        }
+                        
+                        IndexEntry indexEntry = entry.getValue();
+                        IFile file = getWorkspace().getRoot().getFile(new Path(entry.getKey()));
+                        if (!isUpToDate(file, indexEntry)) {
+                            revalidate(entry.getKey(), file, indexEntry);
+                        }
+                        
+                        monitor.worked(1);
+                    }
+                } finally {
+                    monitor.done();
+                }
+                
+                return Status.OK_STATUS;
+            }
+        };
+        
+        validationJob.setSystem(true);
+        validationJob.setPriority(Job.DECORATE);
+        validationJob.schedule();
+    }
+    
+    private void revalidate(@NotNull String key, @NotNull IFile file, @NotNull IndexEntry entry) {
+        long modificationStamp = file.getModificationStamp();
+        IPath location = file.getRawLocation();
+        if (modificationStamp != IResource.NULL_STAMP && location != null) {
+            try {
+                String text = FileUtil.loadFile(location.toFile(), null, true);
+                if (computeHash(text) == entry.contentHash) {
+                    entries.replace(key, entry, new IndexEntry(entry.stub, modificationStamp, entry.contentHash));
+                    return;
+                }
+            } catch (IOException e) {
+                // File is not accessible, its stub is dropped
+            }
+        }
+        
+        entries.remove(key, entry);
+    }
+    
+    /**
+     * 64-bit FNV-1a hash of the text, collisions of {@link String#hashCode()} are too likely for a persistent index
+     */
+    static long computeHash(@NotNull CharSequence text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        
+        return hash;
+    }
+    
+    private static boolean isUpToDate(@NotNull IFile file, @NotNull IndexEntry entry) {
+        return file.getModificationStamp() == entry.modificationStamp;
+    }
+    
+    @NotNull
+    private static String getKey(@NotNull IFile file) {
+        return file.getFullPath().toPortableString();
+    }
+    
+    private static class IndexEntry {
+        final KotlinFileStub stub;
+        final long modificationStamp;
+        final long contentHash;
+        
+        IndexEntry(@NotNull KotlinFileStub stub, long modificationStamp, long contentHash) {
+            this.stub = stub;
+            this.modificationStamp = modificationStamp;
+            this.contentHash = contentHash;
+        }
+    }
+}
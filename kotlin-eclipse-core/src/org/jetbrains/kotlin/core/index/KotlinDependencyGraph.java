@@ -0,0 +1,540 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.index;
+
+import static org.eclipse.core.resources.ResourcesPlugin.getWorkspace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.Activator;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+import org.jetbrains.kotlin.core.resolve.EclipseDescriptorUtils;
+import org.jetbrains.kotlin.core.resolve.KotlinCodeBlocks;
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor;
+import org.jetbrains.kotlin.descriptors.PropertyAccessorDescriptor;
+import org.jetbrains.kotlin.descriptors.PropertyDescriptor;
+import org.jetbrains.kotlin.descriptors.SourceElement;
+import org.jetbrains.kotlin.name.FqName;
+import org.jetbrains.kotlin.name.Name;
+import org.jetbrains.kotlin.psi.JetClassOrObject;
+import org.jetbrains.kotlin.psi.JetArrayAccessExpression;
+import org.jetbrains.kotlin.psi.JetDeclaration;
+import org.jetbrains.kotlin.psi.JetElement;
+import org.jetbrains.kotlin.psi.JetExpression;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.psi.JetForExpression;
+import org.jetbrains.kotlin.psi.JetMultiDeclarationEntry;
+import org.jetbrains.kotlin.psi.JetProperty;
+import org.jetbrains.kotlin.psi.JetSimpleNameExpression;
+import org.jetbrains.kotlin.resolve.BindingContext;
+import org.jetbrains.kotlin.resolve.calls.callUtil.CallUtilPackage;
+import org.jetbrains.kotlin.resolve.calls.model.ResolvedCall;
+import org.jetbrains.kotlin.resolve.source.KotlinSourceElement;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementVisitor;
+
+/**
+ * Dependencies between files of a project recorded during analysis: for each file, top-level declarations of other 
+ * files which it resolves against, and hashes of its own top-level declarations outside code blocks. Besides 
+ * references, calls made by conventions are recorded: operators, indexing, invoke, for loops, multi-declarations 
+ * and property delegates. 
+ * Stored under the plugin state location, one file per project.
+ */
+public class KotlinDependencyGraph {
+    
+    private static final String GRAPH_FILE_EXTENSION = ".dependencies";
+    private static final int FORMAT_VERSION = 2;
+    
+    private static final ConcurrentMap<String, KotlinDependencyGraph> graphs = new ConcurrentHashMap<>();
+    
+    private final Map<String, FileNode> nodes = new HashMap<>();
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+    
+    private KotlinDependencyGraph() {
+    }
+    
+    @NotNull
+    public static KotlinDependencyGraph getInstance(@NotNull IProject project) {
+        KotlinDependencyGraph graph = graphs.get(project.getName());
+        if (graph == null) {
+            Activator activator = Activator.getDefault();
+            KotlinDependencyGraph newGraph = activator != null ? 
+                    load(activator.getStateLocation(), project) : new KotlinDependencyGraph();
+            graph = graphs.putIfAbsent(project.getName(), newGraph);
+            if (graph == null) {
+                graph = newGraph;
+            }
+        }
+        
+        return graph;
+    }
+    
+    /**
+     * Reads the graph of the project saved by {@link #saveAll}, files changed since then are not loaded
+     */
+    @NotNull
+    public static KotlinDependencyGraph load(@NotNull IPath stateLocation, @NotNull IProject project) {
+        KotlinDependencyGraph graph = new KotlinDependencyGraph();
+        graph.load(getGraphFile(stateLocation, project.getName()));
+        
+        return graph;
+    }
+    
+    /**
+     * Returns top-level declarations of the file whose signatures differ from the recorded ones, 
+     * including added and removed declarations
+     */
+    @NotNull
+    public synchronized Set<String> getChangedDeclarations(@NotNull IFile file, @NotNull JetFile jetFile) {
+        FileNode node = nodes.get(getKey(file));
+        Map<String, Long> declarations = computeDeclarationHashes(jetFile);
+        if (node == null) {
+            return declarations.keySet();
+        }
+        
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, Long> declaration : declarations.entrySet()) {
+            if (!declaration.getValue().equals(node.declarations.get(declaration.getKey()))) {
+                changed.add(declaration.getKey());
+            }
+        }
+        for (String oldDeclaration : node.declarations.keySet()) {
+            if (!declarations.containsKey(oldDeclaration)) {
+                changed.add(oldDeclaration);
+            }
+        }
+        
+        return changed;
+    }
+    
+    /**
+     * Returns all top-level declarations recorded for the file
+     */
+    @NotNull
+    public synchronized Set<String> getDeclarations(@NotNull IFile file) {
+        FileNode node = nodes.get(getKey(file));
+        return node != null ? new HashSet<>(node.declarations.keySet()) : Collections.<String>emptySet();
+    }
+    
+    /**
+     * Returns files which use the given declarations of the file, and transitively files which use declarations 
+     * whose signatures depend on them
+     */
+    @NotNull
+    public synchronized Set<IFile> getDependents(@NotNull IFile file, @NotNull Set<String> changedDeclarations) {
+        Set<IFile> result = new HashSet<>();
+        if (changedDeclarations.isEmpty()) {
+            return result;
+        }
+        
+        Map<String, Set<String>> visited = new HashMap<>();
+        Deque<Map.Entry<String, Set<String>>> queue = new ArrayDeque<>();
+        queue.add(new AbstractMap.SimpleEntry<String, Set<String>>(getKey(file), changedDeclarations));
+        
+        while (!queue.isEmpty()) {
+            Map.Entry<String, Set<String>> changed = queue.poll();
+            Set<String> sourceKeys = dependents.get(changed.getKey());
+            if (sourceKeys == null) continue;
+            
+            for (String sourceKey : sourceKeys) {
+                FileNode source = nodes.get(sourceKey);
+                if (source == null || sourceKey.equals(changed.getKey())) continue;
+                
+                Set<String> affectedDeclarations = new HashSet<>();
+                boolean uses = false;
+                for (Dependency dependency : source.dependencies) {
+                    if (dependency.targetFile.equals(changed.getKey()) && changed.getValue().contains(dependency.targetDeclaration)) {
+                        uses = true;
+                        if (dependency.sourceDeclaration != null) {
+                            affectedDeclarations.add(dependency.sourceDeclaration);
+                        }
+                    }
+                }
+                
+                if (!uses) continue;
+                result.add(getWorkspace().getRoot().getFile(new Path(sourceKey)));
+                
+                Set<String> visitedDeclarations = visited.get(sourceKey);
+                if (visitedDeclarations == null) {
+                    visitedDeclarations = new HashSet<>();
+                    visited.put(sourceKey, visitedDeclarations);
+                }
+                affectedDeclarations.removeAll(visitedDeclarations);
+                if (!affectedDeclarations.isEmpty()) {
+                    visitedDeclarations.addAll(affectedDeclarations);
+                    queue.add(new AbstractMap.SimpleEntry<String, Set<String>>(sourceKey, affectedDeclarations));
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Records declarations of the analyzed file and declarations of other files its references are resolved to
+     */
+    public void update(@NotNull IFile file, @NotNull JetFile jetFile, @NotNull final BindingContext bindingContext) {
+        final Set<Dependency> fileDependencies = new HashSet<>();
+        final String sourcePath = jetFile.getVirtualFile().getPath();
+        final Map<String, String> keysByPath = new HashMap<>();
+        jetFile.accept(new PsiRecursiveElementVisitor() {
+            @Override
+            public void visitElement(PsiElement element) {
+                for (DeclarationDescriptor target : getTargets(element, bindingContext)) {
+                    Dependency dependency = createDependency(element, target, sourcePath, keysByPath);
+                    if (dependency != null) {
+                        fileDependencies.add(dependency);
+                    }
+                }
+                
+                super.visitElement(element);
+            }
+        });
+        
+        FileNode node = new FileNode(computeDeclarationHashes(jetFile), fileDependencies, file.getLocalTimeStamp());
+        synchronized (this) {
+            putNode(getKey(file), node);
+        }
+    }
+    
+    public synchronized void remove(@NotNull IFile file) {
+        putNode(getKey(file), null);
+    }
+    
+    public static void saveAll(@NotNull IPath stateLocation) {
+        for (Map.Entry<String, KotlinDependencyGraph> graph : graphs.entrySet()) {
+            graph.getValue().save(getGraphFile(stateLocation, graph.getKey()));
+        }
+    }
+    
+    private void putNode(@NotNull String key, @Nullable FileNode node) {
+        FileNode oldNode = node != null ? nodes.put(key, node) : nodes.remove(key);
+        if (oldNode != null) {
+            for (Dependency dependency : oldNode.dependencies) {
+                Set<String> targetDependents = dependents.get(dependency.targetFile);
+                if (targetDependents != null) {
+                    targetDependents.remove(key);
+                }
+            }
+        }
+        
+        if (node != null) {
+            for (Dependency dependency : node.dependencies) {
+                Set<String> targetDependents = dependents.get(dependency.targetFile);
+                if (targetDependents == null) {
+                    targetDependents = new HashSet<>();
+                    dependents.put(dependency.targetFile, targetDependents);
+                }
+                targetDependents.add(key);
+            }
+        }
+    }
+    
+    /**
+     * Declarations the element refers to by name or by convention
+     */
+    @NotNull
+    private static Set<DeclarationDescriptor> getTargets(@NotNull PsiElement element, @NotNull BindingContext bindingContext) {
+        Set<DeclarationDescriptor> targets = new HashSet<>();
+        if (element instanceof JetSimpleNameExpression) {
+            addTarget(targets, bindingContext.get(BindingContext.REFERENCE_TARGET, (JetSimpleNameExpression) element));
+        }
+        
+        // Operators and implicit invoke
+        if (element instanceof JetElement) {
+            addTarget(targets, CallUtilPackage.getResolvedCall((JetElement) element, bindingContext));
+        }
+        
+        if (element instanceof JetArrayAccessExpression) {
+            JetExpression arrayAccess = (JetExpression) element;
+            addTarget(targets, bindingContext.get(BindingContext.INDEXED_LVALUE_GET, arrayAccess));
+            addTarget(targets, bindingContext.get(BindingContext.INDEXED_LVALUE_SET, arrayAccess));
+        } else if (element instanceof JetForExpression) {
+            JetExpression loopRange = ((JetForExpression) element).getLoopRange();
+            if (loopRange != null) {
+                addTarget(targets, bindingContext.get(BindingContext.LOOP_RANGE_ITERATOR_RESOLVED_CALL, loopRange));
+                addTarget(targets, bindingContext.get(BindingContext.LOOP_RANGE_HAS_NEXT_RESOLVED_CALL, loopRange));
+                addTarget(targets, bindingContext.get(BindingContext.LOOP_RANGE_NEXT_RESOLVED_CALL, loopRange));
+            }
+        } else if (element instanceof JetMultiDeclarationEntry) {
+            addTarget(targets, bindingContext.get(BindingContext.COMPONENT_RESOLVED_CALL, (JetMultiDeclarationEntry) element));
+        } else if (element instanceof JetProperty && ((JetProperty) element).getDelegateExpression() != null) {
+            DeclarationDescriptor property = bindingContext.get(BindingContext.DECLARATION_TO_DESCRIPTOR, element);
+            if (property instanceof PropertyDescriptor) {
+                addDelegateTarget(targets, ((PropertyDescriptor) property).getGetter(), bindingContext);
+                addDelegateTarget(targets, ((PropertyDescriptor) property).getSetter(), bindingContext);
+            }
+        }
+        
+        return targets;
+    }
+    
+    private static void addDelegateTarget(@NotNull Set<DeclarationDescriptor> targets, 
+            @Nullable PropertyAccessorDescriptor accessor, @NotNull BindingContext bindingContext) {
+        if (accessor != null) {
+            addTarget(targets, bindingContext.get(BindingContext.DELEGATED_PROPERTY_RESOLVED_CALL, accessor));
+        }
+    }
+    
+    private static void addTarget(@NotNull Set<DeclarationDescriptor> targets, @Nullable ResolvedCall<?> resolvedCall) {
+        if (resolvedCall != null) {
+            addTarget(targets, resolvedCall.getResultingDescriptor());
+        }
+    }
+    
+    private static void addTarget(@NotNull Set<DeclarationDescriptor> targets, @Nullable DeclarationDescriptor target) {
+        if (target != null) {
+            targets.add(target.getOriginal());
+        }
+    }
+    
+    @Nullable
+    private static Dependency createDependency(@NotNull PsiElement reference, @NotNull DeclarationDescriptor target, 
+            @NotNull String sourcePath, @NotNull Map<String, String> keysByPath) {
+        SourceElement sourceElement = EclipseDescriptorUtils.descriptorToDeclaration(target);
+        if (!(sourceElement instanceof KotlinSourceElement)) {
+            return null;
+        }
+        
+        PsiElement targetElement = ((KotlinSourceElement) sourceElement).getPsi();
+        PsiFile targetFile = targetElement.getContainingFile();
+        VirtualFile targetVirtualFile = targetFile != null ? targetFile.getVirtualFile() : null;
+        if (!(targetFile instanceof JetFile) || targetVirtualFile == null || sourcePath.equals(targetVirtualFile.getPath())) {
+            return null;
+        }
+        
+        String targetPath = targetVirtualFile.getPath();
+        if (!keysByPath.containsKey(targetPath)) {
+            keysByPath.put(targetPath, getKey(targetPath));
+        }
+        
+        String targetKey = keysByPath.get(targetPath);
+        String targetDeclaration = getTopLevelDeclarationName(targetElement);
+        if (targetKey == null || targetDeclaration == null) {
+            return null;
+        }
+        
+        String sourceDeclaration = KotlinCodeBlocks.isInCodeBlock(reference) ? null : getTopLevelDeclarationName(reference);
+        return new Dependency(targetKey, targetDeclaration, sourceDeclaration);
+    }
+    
+    @NotNull
+    private static Map<String, Long> computeDeclarationHashes(@NotNull JetFile jetFile) {
+        Map<String, Long> declarations = new HashMap<>();
+        for (JetDeclaration declaration : jetFile.getDeclarations()) {
+            String name = getDeclarationName(declaration);
+            if (name != null) {
+                long hash = KotlinCodeBlocks.computeOutOfBlockHash(declaration);
+                Long previous = declarations.put(name, hash);
+                if (previous != null) {
+                    declarations.put(name, previous * 31 + hash); // Overloads are tracked together
+                }
+            }
+        }
+        
+        return declarations;
+    }
+    
+    @Nullable
+    private static String getTopLevelDeclarationName(@NotNull PsiElement element) {
+        PsiElement current = element;
+        while (current != null && !(current.getParent() instanceof JetFile)) {
+            current = current.getParent();
+        }
+        
+        return current instanceof JetDeclaration ? getDeclarationName((JetDeclaration) current) : null;
+    }
+    
+    @Nullable
+    private static String getDeclarationName(@NotNull JetDeclaration declaration) {
+        if (declaration instanceof JetClassOrObject) {
+            FqName fqName = ((JetClassOrObject) declaration).getFqName();
+            return fqName != null ? fqName.asString() : null;
+        }
+        
+        String name = declaration.getName();
+        return name != null ? declaration.getContainingJetFile().getPackageFqName().child(Name.identifier(name)).asString() : null;
+    }
+    
+    @NotNull
+    private static String getKey(@NotNull IFile file) {
+        return file.getFullPath().toPortableString();
+    }
+    
+    @Nullable
+    private static String getKey(@NotNull String path) {
+        IFile[] files = getWorkspace().getRoot().findFilesForLocationURI(new File(path).toURI());
+        return files.length > 0 ? getKey(files[0]) : null;
+    }
+    
+    @NotNull
+    private static File getGraphFile(@NotNull IPath stateLocation, @NotNull String projectName) {
+        return stateLocation.append(projectName + GRAPH_FILE_EXTENSION).toFile();
+    }
+    
+    private synchronized void load(@NotNull File graphFile) {
+        if (!graphFile.exists()) {
+            return;
+        }
+        
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(graphFile)))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = input.readUTF();
+                FileNode node = FileNode.read(input);
+                
+                // Files changed while the workspace was closed will be recorded again on analysis
+                IFile file = getWorkspace().getRoot().getFile(new Path(key));
+                if (file.exists() && file.getLocalTimeStamp() == node.timeStamp) {
+                    putNode(key, node);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            KotlinLogger.logError("Cannot read Kotlin dependency graph, it will be rebuilt", e);
+            nodes.clear();
+            dependents.clear();
+        }
+    }
+    
+    private synchronized void save(@NotNull File graphFile) {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(graphFile)))) {
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(nodes.size());
+            for (Map.Entry<String, FileNode> node : nodes.entrySet()) {
+                output.writeUTF(node.getKey());
+                node.getValue().write(output);
+            }
+        } catch (IOException e) {
+            KotlinLogger.logError("Cannot save Kotlin dependency graph", e);
+        }
+    }
+    
+    private static class FileNode {
+        final Map<String, Long> declarations;
+        final Set<Dependency> dependencies;
+        final long timeStamp;
+        
+        FileNode(@NotNull Map<String, Long> declarations, @NotNull Set<Dependency> dependencies, long timeStamp) {
+            this.declarations = declarations;
+            this.dependencies = dependencies;
+            this.timeStamp = timeStamp;
+        }
+        
+        void write(@NotNull DataOutputStream output) throws IOException {
+            output.writeLong(timeStamp);
+            
+            output.writeInt(declarations.size());
+            for (Map.Entry<String, Long> declaration : declarations.entrySet()) {
+                output.writeUTF(declaration.getKey());
+                output.writeLong(declaration.getValue());
+            }
+            
+            output.writeInt(dependencies.size());
+            for (Dependency dependency : dependencies) {
+                output.writeUTF(dependency.targetFile);
+                output.writeUTF(dependency.targetDeclaration);
+                output.writeBoolean(dependency.sourceDeclaration != null);
+                if (dependency.sourceDeclaration != null) {
+                    output.writeUTF(dependency.sourceDeclaration);
+                }
+            }
+        }
+        
+        @NotNull
+        static FileNode read(@NotNull DataInputStream input) throws IOException {
+            long timeStamp = input.readLong();
+            
+            int declarationsCount = input.readInt();
+            Map<String, Long> declarations = new HashMap<>();
+            for (int i = 0; i < declarationsCount; i++) {
+                declarations.put(input.readUTF(), input.readLong());
+            }
+            
+            int dependenciesCount = input.readInt();
+            Set<Dependency> dependencies = new HashSet<>();
+            for (int i = 0; i < dependenciesCount; i++) {
+                String targetFile = input.readUTF();
+                String targetDeclaration = input.readUTF();
+                String sourceDeclaration = input.readBoolean() ? input.readUTF() : null;
+                dependencies.add(new Dependency(targetFile, targetDeclaration, sourceDeclaration));
+            }
+            
+            return new FileNode(declarations, dependencies, timeStamp);
+        }
+    }
+    
+    private static class Dependency {
+        final String targetFile;
+        final String targetDeclaration;
+        // Declaration of the source file whose signature refers to the target, null for references from code blocks
+        final String sourceDeclaration;
+        
+        Dependency(@NotNull String targetFile, @NotNull String targetDeclaration, @Nullable String sourceDeclaration) {
+            this.targetFile = targetFile;
+            this.targetDeclaration = targetDeclaration;
+            this.sourceDeclaration = sourceDeclaration;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Dependency)) {
+                return false;
+            }
+            
+            Dependency other = (Dependency) obj;
+            return targetFile.equals(other.targetFile) && targetDeclaration.equals(other.targetDeclaration) &&
+                    (sourceDeclaration == null ? other.sourceDeclaration == null : sourceDeclaration.equals(other.sourceDeclaration));
+        }
+        
+        @Override
+        public int hashCode() {
+            int result = targetFile.hashCode();
+            result = 31 * result + targetDeclaration.hashCode();
+            return 31 * result + (sourceDeclaration != null ? sourceDeclaration.hashCode() : 0);
+        }
+    }
+}
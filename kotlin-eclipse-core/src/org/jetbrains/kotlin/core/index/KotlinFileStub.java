@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.name.FqName;
+import org.jetbrains.kotlin.psi.JetClassOrObject;
+import org.jetbrains.kotlin.psi.JetDeclaration;
+import org.jetbrains.kotlin.psi.JetDeclarationWithBody;
+import org.jetbrains.kotlin.psi.JetExpression;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.psi.JetImportDirective;
+import org.jetbrains.kotlin.psi.JetNamedFunction;
+import org.jetbrains.kotlin.psi.JetProperty;
+import org.jetbrains.kotlin.resolve.ImportPath;
+
+import com.google.common.collect.Lists;
+import com.intellij.psi.PsiElement;
+
+/**
+ * Declarations of a Kotlin file which are needed before the file is parsed: package, imports and top-level declarations
+ */
+public class KotlinFileStub {
+    
+    public enum DeclarationKind {
+        CLASS, FUNCTION, PROPERTY
+    }
+    
+    public static class DeclarationStub {
+        private final DeclarationKind kind;
+        private final String name;
+        private final String signature;
+        
+        public DeclarationStub(@NotNull DeclarationKind kind, @NotNull String name, @NotNull String signature) {
+            this.kind = kind;
+            this.name = name;
+            this.signature = signature;
+        }
+        
+        @NotNull
+        public DeclarationKind getKind() {
+            return kind;
+        }
+        
+        /**
+         * Fully qualified name for classes and simple name for functions and properties
+         */
+        @NotNull
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * Text of the declaration header without body or initializer
+         */
+        @NotNull
+        public String getSignature() {
+            return signature;
+        }
+    }
+    
+    private final FqName packageFqName;
+    private final List<String> imports;
+    private final List<DeclarationStub> declarations;
+    
+    public KotlinFileStub(@NotNull FqName packageFqName, @NotNull List<String> imports, 
+            @NotNull List<DeclarationStub> declarations) {
+        this.packageFqName = packageFqName;
+        this.imports = Collections.unmodifiableList(imports);
+        this.declarations = Collections.unmodifiableList(declarations);
+    }
+    
+    @NotNull
+    public FqName getPackageFqName() {
+        return packageFqName;
+    }
+    
+    @NotNull
+    public List<String> getImports() {
+        return imports;
+    }
+    
+    @NotNull
+    public List<DeclarationStub> getDeclarations() {
+        return declarations;
+    }
+    
+    public boolean hasTopLevelFunction(@NotNull String name) {
+        for (DeclarationStub declaration : declarations) {
+            if (declaration.getKind() == DeclarationKind.FUNCTION && declaration.getName().equals(name)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    @NotNull
+    public static KotlinFileStub build(@NotNull JetFile jetFile) {
+        List<String> imports = Lists.newArrayList();
+        for (JetImportDirective importDirective : jetFile.getImportDirectives()) {
+            ImportPath importPath = importDirective.getImportPath();
+            if (importPath != null) {
+                imports.add(importPath.getPathStr());
+            }
+        }
+        
+        List<DeclarationStub> declarations = Lists.newArrayList();
+        for (JetDeclaration declaration : jetFile.getDeclarations()) {
+            DeclarationStub stub = buildDeclarationStub(declaration);
+            if (stub != null) {
+                declarations.add(stub);
+            }
+        }
+        
+        return new KotlinFileStub(jetFile.getPackageFqName(), imports, declarations);
+    }
+    
+    @Nullable
+    private static DeclarationStub buildDeclarationStub(@NotNull JetDeclaration declaration) {
+        String name = declaration.getName();
+        if (name == null) {
+            return null;
+        }
+        
+        if (declaration instanceof JetClassOrObject) {
+            FqName fqName = ((JetClassOrObject) declaration).getFqName();
+            if (fqName == null) {
+                return null;
+            }
+            
+            return new DeclarationStub(DeclarationKind.CLASS, fqName.asString(), getHeaderText(declaration, null));
+        } else if (declaration instanceof JetNamedFunction) {
+            JetDeclarationWithBody function = (JetDeclarationWithBody) declaration;
+            return new DeclarationStub(DeclarationKind.FUNCTION, name, getHeaderText(declaration, function.getBodyExpression()));
+        } else if (declaration instanceof JetProperty) {
+            JetProperty property = (JetProperty) declaration;
+            JetExpression initializer = property.getInitializer();
+            return new DeclarationStub(DeclarationKind.PROPERTY, name, 
+                    getHeaderText(declaration, initializer != null ? initializer : property.getDelegateExpression()));
+        }
+        
+        return null;
+    }
+    
+    @NotNull
+    private static String getHeaderText(@NotNull JetDeclaration declaration, @Nullable PsiElement body) {
+        String text = declaration.getText();
+        if (declaration instanceof JetClassOrObject) {
+            int bodyStart = text.indexOf('{');
+            if (bodyStart >= 0) {
+                text = text.substring(0, bodyStart);
+            }
+        } else if (body != null) {
+            text = text.substring(0, body.getTextRange().getStartOffset() - declaration.getTextRange().getStartOffset());
+        }
+        
+        return text.replaceAll("\\s+", " ").trim();
+    }
+    
+    void write(@NotNull DataOutput output) throws IOException {
+        output.writeUTF(packageFqName.asString());
+        
+        output.writeInt(imports.size());
+        for (String importPath : imports) {
+            output.writeUTF(importPath);
+        }
+        
+        output.writeInt(declarations.size());
+        for (DeclarationStub declaration : declarations) {
+            output.writeByte(declaration.getKind().ordinal());
+            output.writeUTF(declaration.getName());
+            output.writeUTF(declaration.getSignature());
+        }
+    }
+    
+    @NotNull
+    static KotlinFileStub read(@NotNull DataInput input) throws IOException {
+        FqName packageFqName = new FqName(input.readUTF());
+        
+        int importsCount = input.readInt();
+        List<String> imports = Lists.newArrayListWithCapacity(importsCount);
+        for (int i = 0; i < importsCount; i++) {
+            imports.add(input.readUTF());
+        }
+        
+        int declarationsCount = input.readInt();
+        List<DeclarationStub> declarations = Lists.newArrayListWithCapacity(declarationsCount);
+        for (int i = 0; i < declarationsCount; i++) {
+            DeclarationKind kind = DeclarationKind.values()[input.readByte()];
+            declarations.add(new DeclarationStub(kind, input.readUTF(), input.readUTF()));
+        }
+        
+        return new KotlinFileStub(packageFqName, imports, declarations);
+    }
+}
@@ -1,40 +1,381 @@
 package org.jetbrains.kotlin.core.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jdt.core.IJavaProject;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.index.KotlinDependencyGraph;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler.Priority;
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer;
-import org.jetbrains.kotlin.core.utils.ProjectUtils;
+import org.jetbrains.kotlin.core.resolve.KotlinCodeBlocks;
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaModelListener;
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.BindingContext;
 
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
 
+/**
+ * Analysis of the whole project versioned per file. Every request re-analyzes only files which were changed since 
+ * their last analysis, transitive dependents of declarations whose signatures were changed or removed 
+ * (see {@link KotlinDependencyGraph}), and files which reference names declared in added files. Files analyzed 
+ * before a change of the Java model or in another module are analyzed again, so the published result never mixes 
+ * descriptors of different modules. Every completed analysis is published as an immutable snapshot, which can be read without waiting for 
+ * a running analysis.
+ */
 public class KotlinAnalysisProjectCache {
+    // Rough average of binding context retained size per one character of analyzed source code
+    private static final int ESTIMATED_BYTES_PER_CHAR = 100;
+    
     private final IJavaProject javaProject;
     
+    private final Map<IFile, FileEntry> fileEntries = new HashMap<>();
     private AnalysisResult cachedAnalysisResult = null;
+    private ModuleDescriptor module = null;
+    private long estimatedSize = 0;
+    private long resetCount = 0;
     private final Object cacheLock = new Object();
     
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final AtomicLong snapshotVersion = new AtomicLong();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final Object snapshotLock = new Object();
+    private long completedRequests = 0;
+    
     public KotlinAnalysisProjectCache(@NotNull IJavaProject javaProject) {
         this.javaProject = javaProject;
     }
     
+    /**
+     * Drops analysis of all files, e.g. when the classpath is changed
+     */
     public void resetCache() {
         synchronized (cacheLock) {
+            for (FileEntry entry : fileEntries.values()) {
+                entry.release();
+            }
+            fileEntries.clear();
             cachedAnalysisResult = null;
+            module = null;
+            estimatedSize = 0;
+            resetCount++;
+        }
+    }
+    
+    public long getEstimatedSize() {
+        synchronized (cacheLock) {
+            return estimatedSize;
         }
     }
     
     @NotNull
     public AnalysisResult getAnalysisResult() {
-        synchronized (cacheLock) {
-            if (cachedAnalysisResult == null) {
-                KotlinEnvironment environment = KotlinEnvironment.getEnvironment(javaProject);
-                cachedAnalysisResult = KotlinAnalyzer.analyzeFiles(javaProject, environment, ProjectUtils.getSourceFiles(javaProject.getProject()));
+        return getAnalysisResult(Priority.BUILD);
+    }
+    
+    /**
+     * Analysis is not performed under the lock: it can ask for light classes, which are computed from this cache.
+     * Concurrent requests are deduplicated by {@link KotlinAnalysisScheduler}.
+     * 
+     * @param priority of the analysis if some files are not analyzed yet
+     */
+    @NotNull
+    public AnalysisResult getAnalysisResult(@NotNull Priority priority) {
+        Map<IFile, JetFile> sourceFiles = new LinkedHashMap<>();
+        for (IFile file : KotlinPsiManager.INSTANCE.getFilesByProject(javaProject.getProject())) {
+            sourceFiles.put(file, KotlinPsiManager.INSTANCE.getParsedFile(file));
+        }
+        
+        int moduleMismatches = 0;
+        while (true) {
+            Map<IFile, JetFile> filesToAnalyze;
+            boolean needsAnalysis;
+            long expectedResetCount;
+            long javaModificationCount;
+            synchronized (cacheLock) {
+                // Taken before the analysis, so Java changes made during it will be noticed by the next request
+                javaModificationCount = EclipseJavaModelListener.getModificationCount();
+                filesToAnalyze = computeFilesToAnalyze(sourceFiles, javaModificationCount);
+                if (filesToAnalyze.isEmpty() && cachedAnalysisResult != null) {
+                    return publish(cachedAnalysisResult, false);
+                }
+                
+                // Files analyzed together always share the module, so the last attempt analyzes all of them
+                if (moduleMismatches > 1) {
+                    filesToAnalyze.putAll(sourceFiles);
+                }
+                needsAnalysis = !filesToAnalyze.isEmpty() || module == null;
+                expectedResetCount = resetCount;
+            }
+            
+            AnalysisResult analysisResult = null;
+            if (needsAnalysis) {
+                KotlinEnvironment environment = KotlinEnvironment.acquireEnvironment(javaProject);
+                try {
+                    analysisResult = KotlinAnalyzer.analyzeFiles(javaProject, environment, filesToAnalyze.values(), priority);
+                } finally {
+                    environment.release();
+                }
+            }
+            
+            synchronized (cacheLock) {
+                if (resetCount == expectedResetCount) {
+                    if (analysisResult != null) {
+                        update(filesToAnalyze, analysisResult, javaModificationCount);
+                    }
+                    
+                    if (!hasEntriesOfOtherModules()) {
+                        cachedAnalysisResult = assembleResult();
+                        return publish(cachedAnalysisResult, true);
+                    }
+                    
+                    // The analysis was done in a new session, files analyzed in the previous one are analyzed again
+                    moduleMismatches++;
+                    continue;
+                }
+            }
+            
+            if (analysisResult != null) {
+                return analysisResult; // Cache was reset during the analysis, the result can be used only by this request
+            }
+        }
+    }
+    
+    /**
+     * Returns the latest completed analysis of the project without waiting, it can miss the latest changes. 
+     * Refresh of the analysis is started in background, so following calls will see them.
+     * 
+     * @return null if the project has not been analyzed yet
+     */
+    @Nullable
+    public AnalysisResult getLatestAnalysisResult() {
+        scheduleRefresh(Priority.NAVIGATION);
+        
+        Snapshot current = snapshot.get();
+        return current != null ? current.analysisResult : null;
+    }
+    
+    /**
+     * Waits for an analysis completed after this call at most for the given time. If it is not ready in time, 
+     * returns the latest completed analysis, never waits for the running one to finish.
+     * 
+     * @return null if the project has not been analyzed yet
+     */
+    @Nullable
+    public AnalysisResult getAnalysisResult(long timeoutMillis, @NotNull Priority priority) {
+        Snapshot initial = snapshot.get();
+        long initialVersion = initial != null ? initial.version : 0;
+        long initialCompletedRequests;
+        synchronized (snapshotLock) {
+            initialCompletedRequests = completedRequests;
+        }
+        
+        scheduleRefresh(priority);
+        
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (snapshotLock) {
+            while (true) {
+                Snapshot current = snapshot.get();
+                long remaining = deadline - System.currentTimeMillis();
+                // Request which found nothing to analyze completes without a new version
+                boolean refreshed = (current != null && current.version > initialVersion) || 
+                        completedRequests > initialCompletedRequests;
+                if (refreshed || remaining <= 0) {
+                    return current != null ? current.analysisResult : null;
+                }
+                
+                try {
+                    snapshotLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return current != null ? current.analysisResult : null;
+                }
+            }
+        }
+    }
+    
+    private void scheduleRefresh(@NotNull final Priority priority) {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        
+        Job refreshJob = new Job("Analyzing " + javaProject.getElementName()) {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                try {
+                    getAnalysisResult(priority);
+                } finally {
+                    refreshScheduled.set(false);
+                }
+                
+                return Status.OK_STATUS;
+            }
+        };
+        refreshJob.setSystem(true);
+        refreshJob.schedule();
+    }
+    
+    /**
+     * Version of the latest published analysis, it is increased only when the analysis result is assembled anew
+     */
+    public long getSnapshotVersion() {
+        Snapshot current = snapshot.get();
+        return current != null ? current.version : 0;
+    }
+    
+    /**
+     * @param assembled whether the result was assembled by this request, otherwise it is already published
+     */
+    @NotNull
+    private AnalysisResult publish(@NotNull AnalysisResult analysisResult, boolean assembled) {
+        synchronized (snapshotLock) {
+            if (assembled) {
+                snapshot.set(new Snapshot(analysisResult, snapshotVersion.incrementAndGet()));
+            }
+            completedRequests++;
+            snapshotLock.notifyAll();
+        }
+        
+        return analysisResult;
+    }
+    
+    @NotNull
+    private Map<IFile, JetFile> computeFilesToAnalyze(@NotNull Map<IFile, JetFile> sourceFiles, 
+            long javaModificationCount) {
+        KotlinDependencyGraph dependencyGraph = KotlinDependencyGraph.getInstance(javaProject.getProject());
+        Map<IFile, JetFile> filesToAnalyze = new LinkedHashMap<>();
+        Set<IFile> dependentFiles = new HashSet<>();
+        Set<String> addedNames = new HashSet<>();
+        
+        for (Iterator<Map.Entry<IFile, FileEntry>> iterator = fileEntries.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<IFile, FileEntry> entry = iterator.next();
+            IFile file = entry.getKey();
+            if (!sourceFiles.containsKey(file)) {
+                dependentFiles.addAll(dependencyGraph.getDependents(file, dependencyGraph.getDeclarations(file)));
+                dependencyGraph.remove(file);
+                entry.getValue().release();
+                iterator.remove();
+                cachedAnalysisResult = null;
+            }
+        }
+        
+        for (Map.Entry<IFile, JetFile> sourceFile : sourceFiles.entrySet()) {
+            JetFile jetFile = sourceFile.getValue();
+            FileEntry entry = fileEntries.get(sourceFile.getKey());
+            if (entry != null && entry.isUpToDate(jetFile, javaModificationCount, module)) {
+                continue;
             }
             
-            return cachedAnalysisResult;
+            filesToAnalyze.put(sourceFile.getKey(), jetFile);
+            if (entry == null) {
+                // References to new declarations were unresolved, so they are not in the dependency graph
+                addedNames.addAll(KotlinFileNames.collect(jetFile).getDeclaredNames());
+            } else if (entry.outOfBlockHash != KotlinCodeBlocks.computeOutOfBlockHash(jetFile)) {
+                Set<String> changedDeclarations = dependencyGraph.getChangedDeclarations(sourceFile.getKey(), jetFile);
+                dependentFiles.addAll(dependencyGraph.getDependents(sourceFile.getKey(), changedDeclarations));
+                
+                Set<String> newNames = new HashSet<>(KotlinFileNames.collect(jetFile).getDeclaredNames());
+                newNames.removeAll(entry.names.getDeclaredNames());
+                addedNames.addAll(newNames);
+            }
+        }
+        
+        for (Map.Entry<IFile, FileEntry> entry : fileEntries.entrySet()) {
+            IFile file = entry.getKey();
+            if (filesToAnalyze.containsKey(file)) continue;
+            
+            if (dependentFiles.contains(file) || (!addedNames.isEmpty() && entry.getValue().names.referencesAny(addedNames))) {
+                filesToAnalyze.put(file, sourceFiles.get(file));
+            }
+        }
+        
+        return filesToAnalyze;
+    }
+    
+    private void update(@NotNull Map<IFile, JetFile> analyzedFiles, @NotNull AnalysisResult analysisResult, 
+            long javaModificationCount) {
+        BindingContext bindingContext = analysisResult.getBindingContext();
+        ModuleDescriptor analyzedModule = analysisResult.getModuleDescriptor();
+        
+        Map<JetFile, List<Diagnostic>> diagnostics = new IdentityHashMap<>();
+        for (JetFile jetFile : analyzedFiles.values()) {
+            diagnostics.put(jetFile, new ArrayList<Diagnostic>());
+        }
+        for (Diagnostic diagnostic : bindingContext.getDiagnostics()) {
+            List<Diagnostic> fileDiagnostics = diagnostics.get(diagnostic.getPsiFile());
+            if (fileDiagnostics != null) {
+                fileDiagnostics.add(diagnostic);
+            }
+        }
+        
+        KotlinDependencyGraph dependencyGraph = KotlinDependencyGraph.getInstance(javaProject.getProject());
+        for (Map.Entry<IFile, JetFile> analyzedFile : analyzedFiles.entrySet()) {
+            JetFile jetFile = analyzedFile.getValue();
+            FileEntry previous = fileEntries.put(analyzedFile.getKey(), 
+                    new FileEntry(jetFile, bindingContext, diagnostics.get(jetFile), analyzedModule, javaModificationCount));
+            if (previous != null) {
+                previous.release();
+            }
+            dependencyGraph.update(analyzedFile.getKey(), jetFile, bindingContext);
+        }
+        
+        module = analyzedModule;
+    }
+    
+    private boolean hasEntriesOfOtherModules() {
+        for (FileEntry entry : fileEntries.values()) {
+            if (entry.module != module) {
+                return true;
+            }
         }
+        
+        return false;
+    }
+    
+    @NotNull
+    private AnalysisResult assembleResult() {
+        Map<JetFile, BindingContext> fileContexts = new HashMap<>();
+        Map<BindingContext, Long> contexts = new IdentityHashMap<>();
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        
+        long analyzedLength = 0;
+        for (FileEntry entry : fileEntries.values()) {
+            fileContexts.put(entry.jetFile, entry.bindingContext);
+            contexts.put(entry.bindingContext, entry.analysisTime);
+            diagnostics.addAll(entry.diagnostics);
+            analyzedLength += entry.jetFile.getTextLength();
+        }
+        estimatedSize = analyzedLength * ESTIMATED_BYTES_PER_CHAR;
+        
+        List<BindingContext> newestFirst = new ArrayList<>(contexts.keySet());
+        Collections.sort(newestFirst, new ContextComparator(contexts));
+        
+        ProjectBindingContext bindingContext = new ProjectBindingContext(fileContexts, newestFirst, diagnostics);
+        return AnalysisResult.success(bindingContext, module);
     }
     
     @NotNull
@@ -42,4 +383,75 @@ public class KotlinAnalysisProjectCache {
         Project ideaProject = KotlinEnvironment.getEnvironment(javaProject).getProject();
         return ServiceManager.getService(ideaProject, KotlinAnalysisProjectCache.class);
     }
+    
+    /**
+     * @return null if the environment of the project is still being created
+     */
+    @Nullable
+    public static KotlinAnalysisProjectCache getInstanceIfReady(@NotNull IJavaProject javaProject) {
+        KotlinEnvironment environment = KotlinEnvironment.getEnvironmentIfReady(javaProject);
+        return environment != null ? ServiceManager.getService(environment.getProject(), KotlinAnalysisProjectCache.class) : null;
+    }
+    
+    /**
+     * Completed analysis of the project, results are never changed after publication
+     */
+    private static class Snapshot {
+        final AnalysisResult analysisResult;
+        final long version;
+        
+        Snapshot(@NotNull AnalysisResult analysisResult, long version) {
+            this.analysisResult = analysisResult;
+            this.version = version;
+        }
+    }
+    
+    private static class FileEntry {
+        final JetFile jetFile;
+        final long modificationStamp;
+        final long outOfBlockHash;
+        final KotlinFileNames names;
+        final BindingContext bindingContext;
+        final List<Diagnostic> diagnostics;
+        final ModuleDescriptor module;
+        final long javaModificationCount;
+        final long analysisTime = System.nanoTime();
+        
+        FileEntry(@NotNull JetFile jetFile, @NotNull BindingContext bindingContext, @NotNull List<Diagnostic> diagnostics, 
+                @NotNull ModuleDescriptor module, long javaModificationCount) {
+            this.jetFile = jetFile;
+            this.modificationStamp = jetFile.getModificationStamp();
+            this.outOfBlockHash = KotlinCodeBlocks.computeOutOfBlockHash(jetFile);
+            this.names = KotlinFileNames.collect(jetFile);
+            this.bindingContext = bindingContext;
+            this.diagnostics = diagnostics;
+            this.module = module;
+            this.javaModificationCount = javaModificationCount;
+            
+            KotlinPsiManager.INSTANCE.retainParsedFiles(Collections.singletonList(jetFile));
+        }
+        
+        void release() {
+            KotlinPsiManager.INSTANCE.releaseParsedFiles(Collections.singletonList(jetFile));
+        }
+        
+        boolean isUpToDate(@NotNull JetFile currentFile, long currentJavaModificationCount, 
+                @Nullable ModuleDescriptor currentModule) {
+            return jetFile == currentFile && modificationStamp == currentFile.getModificationStamp() && 
+                    javaModificationCount == currentJavaModificationCount && module == currentModule;
+        }
+    }
+    
+    private static class ContextComparator implements Comparator<BindingContext> {
+        private final Map<BindingContext, Long> analysisTimes;
+        
+        ContextComparator(@NotNull Map<BindingContext, Long> analysisTimes) {
+            this.analysisTimes = analysisTimes;
+        }
+        
+        @Override
+        public int compare(BindingContext first, BindingContext second) {
+            return Long.compare(analysisTimes.get(second), analysisTimes.get(first));
+        }
+    }
 }
@@ -18,27 +18,42 @@ package org.jetbrains.kotlin.core.model;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.asJava.KotlinLightClassForPackage;
 import org.jetbrains.kotlin.asJava.LightClassGenerationSupport;
 import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport;
 import org.jetbrains.kotlin.cli.jvm.compiler.CoreExternalAnnotationsManager;
 import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles;
 import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot;
-import org.jetbrains.kotlin.cli.jvm.compiler.JvmDependenciesIndex;
 import org.jetbrains.kotlin.codegen.extensions.ExpressionCodegenExtension;
 import org.jetbrains.kotlin.core.Activator;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.filesystem.KotlinLightClassManager;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.Phase;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisSession;
 import org.jetbrains.kotlin.core.resolve.lang.kotlin.EclipseVirtualFileFinder;
+import org.jetbrains.kotlin.core.resolve.lang.kotlin.KotlinClasspathIndex;
+import org.jetbrains.kotlin.core.resolve.lang.kotlin.KotlinJarIndex;
+import org.jetbrains.kotlin.core.resolve.lang.kotlin.KotlinJarIndexCache;
 import org.jetbrains.kotlin.core.utils.ProjectUtils;
 import org.jetbrains.kotlin.extensions.ExternalDeclarationsProvider;
 import org.jetbrains.kotlin.idea.JetFileType;
@@ -81,20 +96,33 @@ public class KotlinEnvironment {
     public final static String KT_JDK_ANNOTATIONS_PATH = ProjectUtils.buildLibPath("kotlin-jdk-annotations");
     public final static String KOTLIN_COMPILER_PATH = ProjectUtils.buildLibPath("kotlin-compiler");
     
-    private static final Map<IJavaProject, KotlinEnvironment> cachedEnvironment = new HashMap<>();
-    private static final Object environmentLock = new Object();
+    private static final ConcurrentMap<IJavaProject, FutureTask<KotlinEnvironment>> cachedEnvironment = 
+            new ConcurrentHashMap<>();
     
     private final JavaCoreApplicationEnvironment applicationEnvironment;
     private final JavaCoreProjectEnvironment projectEnvironment;
+    private final Disposable projectDisposable;
     private final MockProject project;
     private final IJavaProject javaProject;
     
-    private final List<JavaRoot> javaRoots = new ArrayList<>();
+    private final EclipseVirtualFileFinder virtualFileFinder;
+    
+    // Classpath entries and roots created for them, in the same order
+    private List<File> classpath = new ArrayList<>();
+    private List<JavaRoot> javaRoots = new ArrayList<>();
+    private final List<KotlinJarIndex> jarIndexes = new ArrayList<>();
+    
+    private volatile long lastAccessTime = System.currentTimeMillis();
+    
+    // Number of running operations which use the environment, guarded by this
+    private int useCount = 0;
+    private boolean evicted = false;
     
     private KotlinEnvironment(@NotNull IJavaProject javaProject, @NotNull Disposable disposable) {
         this.javaProject = javaProject;
+        this.projectDisposable = disposable;
         
-        applicationEnvironment = createJavaCoreApplicationEnvironment(disposable);
+        applicationEnvironment = ApplicationEnvironmentHolder.APPLICATION_ENVIRONMENT;
         
         projectEnvironment = new JavaCoreProjectEnvironment(disposable, applicationEnvironment) {
             @Override
@@ -104,6 +132,17 @@ public class KotlinEnvironment {
         };
         
         project = projectEnvironment.getProject();
+        
+        Disposer.register(disposable, new Disposable() {
+            @Override
+            public void dispose() {
+                releaseJarIndexes();
+                
+                // Analyses keep parsed files from eviction until they are dropped
+                ServiceManager.getService(project, KotlinAnalysisSession.class).reset();
+                ServiceManager.getService(project, KotlinAnalysisProjectCache.class).resetCache();
+            }
+        });
 
 //        For j2k converter
         project.registerService(NullableNotNullManager.class, new NullableNotNullManager() {
@@ -138,23 +177,20 @@ public class KotlinEnvironment {
         project.registerService(KotlinAnalysisProjectCache.class, new KotlinAnalysisProjectCache(javaProject));
         project.registerService(KotlinLightClassManager.class, new KotlinLightClassManager(javaProject));
         
+        KotlinAnalysisSession analysisSession = new KotlinAnalysisSession(javaProject, project);
+        project.registerService(KotlinAnalysisSession.class, analysisSession);
+        project.registerService(KotlinAnalysisScheduler.class, new KotlinAnalysisScheduler(analysisSession));
+        
         VirtualFile ktJDKAnnotations = PathUtil.jarFileOrDirectoryToVirtualFile(new File(KT_JDK_ANNOTATIONS_PATH));
         annotationsManager.addExternalAnnotationsRoot(ktJDKAnnotations);
 
         configureClasspath();
         
-        JvmDependenciesIndex index = new JvmDependenciesIndex(javaRoots);
-        
-        project.registerService(JvmVirtualFileFinderFactory.class, new EclipseVirtualFileFinder(index));
+        virtualFileFinder = new EclipseVirtualFileFinder(new KotlinClasspathIndex(javaRoots, jarIndexes));
+        project.registerService(JvmVirtualFileFinderFactory.class, virtualFileFinder);
         
         ExternalDeclarationsProvider.OBJECT$.registerExtensionPoint(project);
         ExpressionCodegenExtension.OBJECT$.registerExtensionPoint(project);
-        
-        for (String config : EnvironmentConfigFiles.JVM_CONFIG_FILES) {
-            registerApplicationExtensionPointsAndExtensionsFrom(config);
-        }
-        
-        cachedEnvironment.put(javaProject, this);
     }
     
     private static void registerProjectExtensionPoints(ExtensionsArea area) {
@@ -167,38 +203,385 @@ public class KotlinEnvironment {
         CoreApplicationEnvironment.registerExtensionPointAndExtensions(pluginRoot, configFilePath, Extensions.getRootArea());
     }
     
+    /**
+     * Returns environment of the project, creating it in the calling thread if nobody has started to create it yet
+     */
     @NotNull
     public static KotlinEnvironment getEnvironment(@NotNull IJavaProject javaProject) {
-        synchronized (environmentLock) {
-            if (!cachedEnvironment.containsKey(javaProject)) {
-                cachedEnvironment.put(javaProject, new KotlinEnvironment(javaProject, Disposer.newDisposable()));
+        while (true) {
+            FutureTask<KotlinEnvironment> environment = cachedEnvironment.get(javaProject);
+            if (environment == null) {
+                FutureTask<KotlinEnvironment> newEnvironment = createEnvironmentTask(javaProject);
+                environment = cachedEnvironment.putIfAbsent(javaProject, newEnvironment);
+                if (environment == null) {
+                    environment = newEnvironment;
+                }
             }
             
-            return cachedEnvironment.get(javaProject);
+            // Does nothing if the environment is already being created by a job or another thread
+            environment.run();
+            
+            // Null if the environment was replaced while we were waiting for it
+            KotlinEnvironment kotlinEnvironment = waitForEnvironment(javaProject, environment);
+            if (kotlinEnvironment != null) {
+                kotlinEnvironment.lastAccessTime = System.currentTimeMillis();
+                return kotlinEnvironment;
+            }
+        }
+    }
+    
+    /**
+     * Returns environment of the project which is not evicted until {@link #release()} is called. Long operations, 
+     * e.g. analyses, should lease the environment instead of using {@link #getEnvironment(IJavaProject)}.
+     */
+    @NotNull
+    public static KotlinEnvironment acquireEnvironment(@NotNull IJavaProject javaProject) {
+        while (true) {
+            KotlinEnvironment kotlinEnvironment = getEnvironment(javaProject);
+            if (kotlinEnvironment.acquire()) {
+                return kotlinEnvironment;
+            }
+            
+            // Environment is being evicted, the next request creates a new one
+            Thread.yield();
+        }
+    }
+    
+    public synchronized void release() {
+        assert useCount > 0 : "Environment of " + javaProject.getElementName() + " was released more times than acquired";
+        useCount--;
+        lastAccessTime = System.currentTimeMillis();
+    }
+    
+    private synchronized boolean acquire() {
+        if (evicted) {
+            return false;
+        }
+        
+        useCount++;
+        return true;
+    }
+    
+    private synchronized boolean markEvicted() {
+        if (useCount > 0) {
+            return false;
+        }
+        
+        evicted = true;
+        return true;
+    }
+    
+    /**
+     * Returns environment of the project only if it is already created, otherwise schedules its creation and 
+     * returns null. Intended for UI code which should not wait for the classpath configuration.
+     */
+    @Nullable
+    public static KotlinEnvironment getEnvironmentIfReady(@NotNull IJavaProject javaProject) {
+        FutureTask<KotlinEnvironment> environment = cachedEnvironment.get(javaProject);
+        if (environment == null) {
+            scheduleEnvironmentCreation(javaProject);
+            return null;
+        }
+        
+        KotlinEnvironment kotlinEnvironment = getCreatedEnvironment(environment);
+        if (kotlinEnvironment != null) {
+            kotlinEnvironment.lastAccessTime = System.currentTimeMillis();
         }
+        
+        return kotlinEnvironment;
     }
     
+    /**
+     * Starts creation of the project environment in background, environments of different projects are created 
+     * concurrently
+     */
+    public static void scheduleEnvironmentCreation(@NotNull IJavaProject javaProject) {
+        if (cachedEnvironment.containsKey(javaProject)) {
+            return;
+        }
+        
+        FutureTask<KotlinEnvironment> newEnvironment = createEnvironmentTask(javaProject);
+        if (cachedEnvironment.putIfAbsent(javaProject, newEnvironment) == null) {
+            scheduleEnvironmentJob(javaProject, newEnvironment, null);
+        }
+    }
+    
+    /**
+     * Applies classpath changes of the project. When roots are only added and the environment is not leased, they are 
+     * added to the existing environment and its services survive, otherwise the environment is recreated.
+     */
     public static void updateKotlinEnvironment(@NotNull IJavaProject javaProject) {
-        synchronized (environmentLock) {
-            if (cachedEnvironment.containsKey(javaProject)) {
-                KotlinEnvironment environment = cachedEnvironment.get(javaProject);
-                Disposer.dispose(environment.getJavaApplicationEnvironment().getParentDisposable());
+        FutureTask<KotlinEnvironment> environment = cachedEnvironment.get(javaProject);
+        if (environment != null && environment.isDone()) {
+            KotlinEnvironment kotlinEnvironment = getEnvironmentIfReady(javaProject);
+            if (kotlinEnvironment != null && kotlinEnvironment.updateClasspath()) {
+                return;
+            }
+        }
+        
+        FutureTask<KotlinEnvironment> newEnvironment = createEnvironmentTask(javaProject);
+        FutureTask<KotlinEnvironment> oldEnvironment = cachedEnvironment.put(javaProject, newEnvironment);
+        
+        scheduleEnvironmentJob(javaProject, newEnvironment, oldEnvironment);
+    }
+    
+    @NotNull
+    private static FutureTask<KotlinEnvironment> createEnvironmentTask(@NotNull final IJavaProject javaProject) {
+        return new EnvironmentTask(new Callable<KotlinEnvironment>() {
+            @Override
+            public KotlinEnvironment call() {
+                long start = System.nanoTime();
+                try {
+                    return new KotlinEnvironment(javaProject, Disposer.newDisposable());
+                } finally {
+                    KotlinPerformanceStatistics.INSTANCE.record(Phase.ENVIRONMENT_SETUP, start);
+                }
+            }
+        });
+    }
+    
+    private static void scheduleEnvironmentJob(@NotNull final IJavaProject javaProject, 
+            @NotNull final FutureTask<KotlinEnvironment> environment, 
+            @Nullable final FutureTask<KotlinEnvironment> obsoleteEnvironment) {
+        Job job = new Job("Initializing Kotlin environment for " + javaProject.getElementName()) {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                if (obsoleteEnvironment != null) {
+                    disposeWhenCreated(obsoleteEnvironment);
+                }
+                
+                environment.run();
+                try {
+                    waitForEnvironment(javaProject, environment);
+                } catch (RuntimeException e) {
+                    // Already logged, next request for the environment will try to create it again
+                }
+                
+                return Status.OK_STATUS;
+            }
+        };
+        
+        job.setSystem(true);
+        job.schedule();
+    }
+    
+    /**
+     * Disposes environment of the project, e.g. when the project is closed. Parsed files of the project are dropped 
+     * and the environment will be created again on the next request.
+     */
+    public static void disposeEnvironment(@NotNull IJavaProject javaProject) {
+        FutureTask<KotlinEnvironment> environment = cachedEnvironment.remove(javaProject);
+        if (environment != null) {
+            disposeWhenCreated(environment);
+            KotlinPsiManager.INSTANCE.removeParsedFiles(javaProject.getProject());
+        }
+    }
+    
+    /**
+     * Disposes environments which were not requested during {@code idleTimeout} milliseconds, which are not leased 
+     * and which have no files opened in editors
+     * @return number of disposed environments
+     */
+    public static int evictIdleEnvironments(long idleTimeout) {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Map.Entry<IJavaProject, FutureTask<KotlinEnvironment>> entry : cachedEnvironment.entrySet()) {
+            KotlinEnvironment environment = getCreatedEnvironment(entry.getValue());
+            if (environment == null || now - environment.lastAccessTime < idleTimeout) continue;
+            
+            IJavaProject javaProject = entry.getKey();
+            if (KotlinPsiManager.INSTANCE.hasPinnedFiles(javaProject.getProject())) continue;
+            
+            if (!environment.markEvicted()) continue;
+            
+            // Replaced environment is disposed by the one who replaced it
+            if (cachedEnvironment.remove(javaProject, entry.getValue())) {
+                Disposer.dispose(environment.projectDisposable);
+                KotlinPsiManager.INSTANCE.removeParsedFiles(javaProject.getProject());
+                evicted++;
+            }
+        }
+        
+        return evicted;
+    }
+    
+    @NotNull
+    public static List<KotlinEnvironmentStatistics> getStatistics() {
+        List<KotlinEnvironmentStatistics> statistics = new ArrayList<>();
+        for (FutureTask<KotlinEnvironment> environment : cachedEnvironment.values()) {
+            KotlinEnvironment kotlinEnvironment = getCreatedEnvironment(environment);
+            if (kotlinEnvironment != null) {
+                statistics.add(kotlinEnvironment.computeStatistics());
+            }
+        }
+        
+        return statistics;
+    }
+    
+    @NotNull
+    public static List<KotlinAnalysisScheduler> getAnalysisSchedulers() {
+        List<KotlinAnalysisScheduler> schedulers = new ArrayList<>();
+        for (FutureTask<KotlinEnvironment> environment : cachedEnvironment.values()) {
+            KotlinEnvironment kotlinEnvironment = getCreatedEnvironment(environment);
+            if (kotlinEnvironment != null) {
+                schedulers.add(ServiceManager.getService(kotlinEnvironment.project, KotlinAnalysisScheduler.class));
+            }
+        }
+        
+        return schedulers;
+    }
+    
+    @NotNull
+    private KotlinEnvironmentStatistics computeStatistics() {
+        long jarIndexesSize = 0;
+        synchronized (this) {
+            for (KotlinJarIndex jarIndex : jarIndexes) {
+                jarIndexesSize += jarIndex.getEstimatedSize();
+            }
+        }
+        
+        return new KotlinEnvironmentStatistics(
+                javaProject.getElementName(),
+                KotlinPsiManager.INSTANCE.getEstimatedPsiSize(javaProject.getProject()),
+                ServiceManager.getService(project, KotlinAnalysisProjectCache.class).getEstimatedSize(),
+                jarIndexesSize,
+                lastAccessTime);
+    }
+    
+    @Nullable
+    private static KotlinEnvironment getCreatedEnvironment(@NotNull FutureTask<KotlinEnvironment> environment) {
+        if (!environment.isDone() || environment.isCancelled()) {
+            return null;
+        }
+        
+        try {
+            return environment.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+    
+    private static void disposeWhenCreated(@NotNull FutureTask<KotlinEnvironment> environment) {
+        // Environment which is being created at the moment disposes itself on completion, see EnvironmentTask
+        environment.cancel(false);
+        
+        KotlinEnvironment kotlinEnvironment = getCreatedEnvironment(environment);
+        if (kotlinEnvironment != null) {
+            Disposer.dispose(kotlinEnvironment.projectDisposable);
+        }
+    }
+    
+    /**
+     * @return created environment or null if its creation was canceled
+     */
+    @Nullable
+    private static KotlinEnvironment waitForEnvironment(@NotNull IJavaProject javaProject, 
+            @NotNull FutureTask<KotlinEnvironment> environment) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return environment.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (CancellationException e) {
+                    return null;
+                } catch (ExecutionException e) {
+                    cachedEnvironment.remove(javaProject, environment);
+                    
+                    KotlinLogger.logAndThrow(e.getCause());
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
-            cachedEnvironment.put(javaProject, new KotlinEnvironment(javaProject, Disposer.newDisposable()));
         }
     }
     
     private void configureClasspath() {
         try {
             for (File file : ProjectUtils.collectClasspathWithDependenciesForBuild(javaProject)) {
-                addToClasspath(file);
+                javaRoots.add(addToClasspath(file));
+                classpath.add(file);
             }
         } catch (CoreException e) {
             KotlinLogger.logAndThrow(e);
         }
     }
     
-    private JavaCoreApplicationEnvironment createJavaCoreApplicationEnvironment(@NotNull Disposable disposable) {
+    /**
+     * Adds new classpath entries to the environment. Roots cannot be removed from the java file manager of 
+     * the project environment, so returns false if some entries were removed or reordered. Running analyses would 
+     * see the roots change under them, so returns false as well if the environment is leased.
+     */
+    private boolean updateClasspath() {
+        List<File> newClasspath;
+        try {
+            newClasspath = ProjectUtils.collectClasspathWithDependenciesForBuild(javaProject);
+        } catch (JavaModelException e) {
+            KotlinLogger.logError(e);
+            return false;
+        }
+        
+        // New leases wait for the monitor, so no analysis starts until the roots are applied
+        synchronized (this) {
+            if (newClasspath.equals(classpath)) {
+                return true;
+            }
+            
+            if (useCount > 0 || !isSubsequence(classpath, newClasspath)) {
+                return false;
+            }
+            
+            List<JavaRoot> newJavaRoots = new ArrayList<>(newClasspath.size());
+            int oldIndex = 0;
+            try {
+                for (File file : newClasspath) {
+                    if (oldIndex < classpath.size() && classpath.get(oldIndex).equals(file)) {
+                        newJavaRoots.add(javaRoots.get(oldIndex));
+                        oldIndex++;
+                    } else {
+                        newJavaRoots.add(addToClasspath(file));
+                    }
+                }
+            } catch (CoreException e) {
+                KotlinLogger.logError(e);
+                return false;
+            }
+            
+            classpath = newClasspath;
+            javaRoots = newJavaRoots;
+            virtualFileFinder.setIndex(new KotlinClasspathIndex(newJavaRoots, jarIndexes));
+        }
+        
+        // Caches are reset outside of the monitor, they take their own locks which analyses hold while leasing
+        ServiceManager.getService(project, KotlinAnalysisProjectCache.class).resetCache();
+        ServiceManager.getService(project, KotlinAnalysisSession.class).reset();
+        
+        return true;
+    }
+    
+    private synchronized void releaseJarIndexes() {
+        for (KotlinJarIndex jarIndex : jarIndexes) {
+            KotlinJarIndexCache.INSTANCE.release(jarIndex);
+        }
+        jarIndexes.clear();
+    }
+    
+    private static boolean isSubsequence(@NotNull List<File> subsequence, @NotNull List<File> sequence) {
+        int index = 0;
+        for (File file : sequence) {
+            if (index < subsequence.size() && subsequence.get(index).equals(file)) {
+                index++;
+            }
+        }
+        
+        return index == subsequence.size();
+    }
+    
+    private static JavaCoreApplicationEnvironment createJavaCoreApplicationEnvironment(@NotNull Disposable disposable) {
         Extensions.cleanRootArea(disposable);
         registerAppExtensionPoints();
         JavaCoreApplicationEnvironment javaApplicationEnvironment = new JavaCoreApplicationEnvironment(disposable);
@@ -215,6 +598,10 @@ public class KotlinEnvironment {
         javaApplicationEnvironment.getApplication().registerService(KotlinBinaryClassCache.class,
                 new KotlinBinaryClassCache());
         
+        for (String config : EnvironmentConfigFiles.JVM_CONFIG_FILES) {
+            registerApplicationExtensionPointsAndExtensionsFrom(config);
+        }
+        
         return javaApplicationEnvironment;
     }
     
@@ -241,21 +628,52 @@ public class KotlinEnvironment {
         return applicationEnvironment;
     }
     
-    private void addToClasspath(File path) throws CoreException {
+    /**
+     * Disposes the created environment if the task was canceled while the environment was being created
+     */
+    private static class EnvironmentTask extends FutureTask<KotlinEnvironment> {
+        EnvironmentTask(@NotNull Callable<KotlinEnvironment> callable) {
+            super(callable);
+        }
+        
+        @Override
+        protected void set(KotlinEnvironment environment) {
+            super.set(environment);
+            if (isCancelled()) {
+                Disposer.dispose(environment.projectDisposable);
+            }
+        }
+    }
+    
+    /**
+     * Application environment is the same for all projects and lives as long as the plugin, 
+     * only project environments are created and disposed per Java project
+     */
+    private static class ApplicationEnvironmentHolder {
+        static final JavaCoreApplicationEnvironment APPLICATION_ENVIRONMENT = 
+                createJavaCoreApplicationEnvironment(Disposer.newDisposable());
+    }
+    
+    @NotNull
+    private JavaRoot addToClasspath(File path) throws CoreException {
         if (path.isFile()) {
-            VirtualFile jarFile = applicationEnvironment.getJarFileSystem().findFileByPath(path + "!/");
-            if (jarFile == null) {
+            KotlinJarIndex jarIndex = KotlinJarIndexCache.INSTANCE.acquire(path);
+            if (jarIndex == null) {
                 throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Can't find jar: " + path));
             }
-            projectEnvironment.addJarToClassPath(path);
-            javaRoots.add(new JavaRoot(jarFile, JavaRoot.RootType.BINARY));
+            jarIndexes.add(jarIndex);
+            
+            // Root is opened for the current version of the jar, see KotlinJarIndexCache
+            projectEnvironment.addSourcesToClasspath(jarIndex.getRoot().getFile());
+            
+            return jarIndex.getRoot();
         } else {
             VirtualFile root = applicationEnvironment.getLocalFileSystem().findFileByPath(path.getAbsolutePath());
             if (root == null) {
                 throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Can't find jar: " + path));
             }
             projectEnvironment.addSourcesToClasspath(root);
-            javaRoots.add(new JavaRoot(root, JavaRoot.RootType.SOURCE));
+            return new JavaRoot(root, JavaRoot.RootType.SOURCE);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Estimated memory retained by the environment of one project. Sizes are rough estimates in bytes, 
+ * jar indexes are shared between projects and are counted for each project using them.
+ */
+public class KotlinEnvironmentStatistics {
+    private final String projectName;
+    private final long psiSize;
+    private final long analysisSize;
+    private final long jarIndexesSize;
+    private final long lastAccessTime;
+    
+    public KotlinEnvironmentStatistics(@NotNull String projectName, long psiSize, long analysisSize, 
+            long jarIndexesSize, long lastAccessTime) {
+        this.projectName = projectName;
+        this.psiSize = psiSize;
+        this.analysisSize = analysisSize;
+        this.jarIndexesSize = jarIndexesSize;
+        this.lastAccessTime = lastAccessTime;
+    }
+    
+    @NotNull
+    public String getProjectName() {
+        return projectName;
+    }
+    
+    public long getPsiSize() {
+        return psiSize;
+    }
+    
+    public long getAnalysisSize() {
+        return analysisSize;
+    }
+    
+    public long getJarIndexesSize() {
+        return jarIndexesSize;
+    }
+    
+    public long getEstimatedSize() {
+        return psiSize + analysisSize + jarIndexesSize;
+    }
+    
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+    
+    @Override
+    public String toString() {
+        return projectName + ": psi=" + psiSize + ", analysis=" + analysisSize + ", jars=" + jarIndexesSize;
+    }
+}
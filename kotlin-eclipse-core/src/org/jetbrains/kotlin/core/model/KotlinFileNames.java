@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.core.resolve.KotlinCodeBlocks;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.psi.JetNamedDeclaration;
+import org.jetbrains.kotlin.psi.JetSimpleNameExpression;
+
+import com.google.common.collect.ImmutableSet;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiRecursiveElementVisitor;
+
+/**
+ * Names declared outside code blocks of a file and names referenced from it. A file can depend on declarations 
+ * of another file only if it references one of their names.
+ */
+public class KotlinFileNames {
+    
+    // Functions called by conventions are not referenced by name
+    private static final Set<String> CONVENTION_NAMES = ImmutableSet.of(
+            "get", "set", "invoke", "iterator", "next", "hasNext", "contains", "rangeTo", "equals", "compareTo",
+            "plus", "minus", "times", "div", "mod", "inc", "dec", "not",
+            "plusAssign", "minusAssign", "timesAssign", "divAssign", "modAssign", "propertyDelegated");
+    private static final String COMPONENT_PREFIX = "component";
+    
+    private final Set<String> declaredNames;
+    private final Set<String> referencedNames;
+    
+    private KotlinFileNames(@NotNull Set<String> declaredNames, @NotNull Set<String> referencedNames) {
+        this.declaredNames = declaredNames;
+        this.referencedNames = referencedNames;
+    }
+    
+    @NotNull
+    public static KotlinFileNames collect(@NotNull JetFile jetFile) {
+        final Set<String> declaredNames = new HashSet<>();
+        final Set<String> referencedNames = new HashSet<>();
+        jetFile.accept(new PsiRecursiveElementVisitor() {
+            @Override
+            public void visitElement(PsiElement element) {
+                if (element instanceof JetNamedDeclaration && !KotlinCodeBlocks.isInCodeBlock(element)) {
+                    String name = ((JetNamedDeclaration) element).getName();
+                    if (name != null) {
+                        declaredNames.add(name);
+                    }
+                } else if (element instanceof JetSimpleNameExpression) {
+                    referencedNames.add(((JetSimpleNameExpression) element).getReferencedName());
+                }
+                
+                super.visitElement(element);
+            }
+        });
+        
+        return new KotlinFileNames(Collections.unmodifiableSet(declaredNames), Collections.unmodifiableSet(referencedNames));
+    }
+    
+    @NotNull
+    public Set<String> getDeclaredNames() {
+        return declaredNames;
+    }
+    
+    public boolean referencesAny(@NotNull Set<String> names) {
+        for (String name : names) {
+            if (isConventionName(name) || referencedNames.contains(name)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private static boolean isConventionName(@NotNull String name) {
+        return CONVENTION_NAMES.contains(name) || name.startsWith(COMPONENT_PREFIX);
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+
+/**
+ * Evicts environments of idle projects when heap usage after garbage collection exceeds the threshold. 
+ * Idle timeout can be configured with {@code kotlin.environment.idleTimeout} system property (in milliseconds).
+ */
+public class KotlinMemoryWatcher implements NotificationListener {
+    
+    public static final String IDLE_TIMEOUT_PROPERTY = "kotlin.environment.idleTimeout";
+    
+    private static final double USAGE_THRESHOLD = 0.8;
+    
+    private final long idleTimeout = Long.getLong(IDLE_TIMEOUT_PROPERTY, 10 * 60 * 1000);
+    
+    private final Job evictionJob = new Job("Evicting idle Kotlin environments") {
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            int evicted = KotlinEnvironment.evictIdleEnvironments(idleTimeout);
+            if (evicted > 0) {
+                KotlinLogger.logInfo("Low memory: evicted " + evicted + " idle Kotlin environments");
+            }
+            
+            return Status.OK_STATUS;
+        }
+    };
+    
+    public KotlinMemoryWatcher() {
+        evictionJob.setSystem(true);
+    }
+    
+    public void start() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long maxSize = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && maxSize > 0) {
+                pool.setCollectionUsageThreshold((long) (maxSize * USAGE_THRESHOLD));
+            }
+        }
+        
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+    }
+    
+    public void stop() {
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        } catch (ListenerNotFoundException e) {
+            // Was not started
+        }
+        
+        evictionJob.cancel();
+    }
+    
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            evictionJob.schedule();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.core.builder.KotlinPsiCache;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler;
+
+/**
+ * Latency histograms, invocation counts and cache hit rates of the main phases of the plugin. 
+ * Published as an MXBean with name {@value #OBJECT_NAME} while the core bundle is active.
+ * <p>
+ * Usage: {@code long start = System.nanoTime(); try { ... } finally { INSTANCE.record(Phase.PARSE, start); }}
+ */
+public class KotlinPerformanceStatistics implements KotlinPerformanceStatisticsMXBean {
+    
+    public static final String OBJECT_NAME = "org.jetbrains.kotlin.core:type=PerformanceStatistics";
+    
+    public static final KotlinPerformanceStatistics INSTANCE = new KotlinPerformanceStatistics();
+    
+    public enum Phase {
+        PARSE,
+        ENVIRONMENT_SETUP,
+        ANALYSIS,
+        JAVA_CLASS_LOOKUP,
+        LIGHT_CLASS_GENERATION,
+        MARKERS_UPDATE
+    }
+    
+    // Upper bounds of histogram buckets in milliseconds: 1, 2, 4, ..., 16384 and unbounded
+    private static final int BOUNDED_BUCKETS_COUNT = 15;
+    
+    private final Map<Phase, PhaseCounters> counters = new LinkedHashMap<>();
+    
+    private KotlinPerformanceStatistics() {
+        for (Phase phase : Phase.values()) {
+            counters.put(phase, new PhaseCounters());
+        }
+    }
+    
+    /**
+     * Records an invocation of the phase which started at the given {@link System#nanoTime()}
+     */
+    public void record(@NotNull Phase phase, long startNanos) {
+        counters.get(phase).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+    
+    public void recordCacheHit(@NotNull Phase phase) {
+        counters.get(phase).cacheHitCount.incrementAndGet();
+    }
+    
+    public void recordCacheMiss(@NotNull Phase phase) {
+        counters.get(phase).cacheMissCount.incrementAndGet();
+    }
+    
+    @Override
+    public Map<String, KotlinPhaseStatistics> getPhases() {
+        Map<String, KotlinPhaseStatistics> phases = new LinkedHashMap<>();
+        for (Map.Entry<Phase, PhaseCounters> entry : counters.entrySet()) {
+            phases.put(entry.getKey().name(), entry.getValue().toStatistics());
+        }
+        
+        return phases;
+    }
+    
+    @Override
+    public long[] getHistogramBounds() {
+        long[] bounds = new long[BOUNDED_BUCKETS_COUNT];
+        for (int i = 0; i < BOUNDED_BUCKETS_COUNT; i++) {
+            bounds[i] = 1L << i;
+        }
+        
+        return bounds;
+    }
+    
+    /**
+     * Returns index of the histogram bucket for the time: bucket i holds times up to 2^i milliseconds, 
+     * the last bucket holds longer times
+     */
+    public static int getHistogramBucket(long timeMillis) {
+        int bucket = timeMillis <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(timeMillis - 1);
+        return Math.min(bucket, BOUNDED_BUCKETS_COUNT);
+    }
+    
+    @Override
+    public long getPsiCacheHitCount() {
+        return getPsiCache().getHitCount();
+    }
+    
+    @Override
+    public long getPsiCacheMissCount() {
+        return getPsiCache().getMissCount();
+    }
+    
+    @Override
+    public long getPsiCacheEvictionCount() {
+        return getPsiCache().getEvictionCount();
+    }
+    
+    @Override
+    public int getPsiCacheFilesCount() {
+        return getPsiCache().getCachedFilesCount();
+    }
+    
+    @Override
+    public long getPsiCacheEstimatedSize() {
+        return getPsiCache().getEstimatedSize();
+    }
+    
+    @Override
+    public long getAnalysisRequestCount() {
+        long count = 0;
+        for (KotlinAnalysisScheduler scheduler : KotlinEnvironment.getAnalysisSchedulers()) {
+            count += scheduler.getRequestCount();
+        }
+        
+        return count;
+    }
+    
+    @Override
+    public long getAnalysisJoinedCount() {
+        long count = 0;
+        for (KotlinAnalysisScheduler scheduler : KotlinEnvironment.getAnalysisSchedulers()) {
+            count += scheduler.getJoinedCount();
+        }
+        
+        return count;
+    }
+    
+    @Override
+    public int getAnalysisQueueDepth() {
+        int depth = 0;
+        for (KotlinAnalysisScheduler scheduler : KotlinEnvironment.getAnalysisSchedulers()) {
+            depth += scheduler.getQueueDepth();
+        }
+        
+        return depth;
+    }
+    
+    @Override
+    public long getAnalysisMaxWaitTime() {
+        long maxWaitTime = 0;
+        for (KotlinAnalysisScheduler scheduler : KotlinEnvironment.getAnalysisSchedulers()) {
+            maxWaitTime = Math.max(maxWaitTime, scheduler.getMaxWaitTime());
+        }
+        
+        return maxWaitTime;
+    }
+    
+    @Override
+    public int getEnvironmentsCount() {
+        return KotlinEnvironment.getStatistics().size();
+    }
+    
+    @Override
+    public long getEnvironmentsEstimatedSize() {
+        long size = 0;
+        for (KotlinEnvironmentStatistics statistics : KotlinEnvironment.getStatistics()) {
+            size += statistics.getEstimatedSize();
+        }
+        
+        return size;
+    }
+    
+    @Override
+    public void reset() {
+        for (PhaseCounters phaseCounters : counters.values()) {
+            phaseCounters.reset();
+        }
+    }
+    
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            KotlinLogger.logError("Cannot register Kotlin performance statistics", e);
+        }
+    }
+    
+    public void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            KotlinLogger.logError("Cannot unregister Kotlin performance statistics", e);
+        }
+    }
+    
+    @NotNull
+    private static KotlinPsiCache getPsiCache() {
+        return KotlinPsiManager.INSTANCE.getCache();
+    }
+    
+    private static class PhaseCounters {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalTime = new AtomicLong();
+        final AtomicLong maxTime = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BOUNDED_BUCKETS_COUNT + 1);
+        final AtomicLong cacheHitCount = new AtomicLong();
+        final AtomicLong cacheMissCount = new AtomicLong();
+        
+        void record(long time) {
+            count.incrementAndGet();
+            totalTime.addAndGet(time);
+            
+            long max = maxTime.get();
+            while (time > max && !maxTime.compareAndSet(max, time)) {
+                max = maxTime.get();
+            }
+            
+            histogram.incrementAndGet(getHistogramBucket(time));
+        }
+        
+        void reset() {
+            count.set(0);
+            totalTime.set(0);
+            maxTime.set(0);
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.set(i, 0);
+            }
+            cacheHitCount.set(0);
+            cacheMissCount.set(0);
+        }
+        
+        @NotNull
+        KotlinPhaseStatistics toStatistics() {
+            long[] buckets = new long[histogram.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            
+            return new KotlinPhaseStatistics(count.get(), totalTime.get(), maxTime.get(), buckets, 
+                    cacheHitCount.get(), cacheMissCount.get());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link KotlinPerformanceStatistics}. All times are in milliseconds.
+ */
+public interface KotlinPerformanceStatisticsMXBean {
+    
+    /**
+     * Statistics of each instrumented phase by the phase name
+     */
+    Map<String, KotlinPhaseStatistics> getPhases();
+    
+    /**
+     * Upper bounds of histogram buckets of phases, the last bucket has no upper bound
+     */
+    long[] getHistogramBounds();
+    
+    long getPsiCacheHitCount();
+    
+    long getPsiCacheMissCount();
+    
+    long getPsiCacheEvictionCount();
+    
+    int getPsiCacheFilesCount();
+    
+    long getPsiCacheEstimatedSize();
+    
+    long getAnalysisRequestCount();
+    
+    /**
+     * Number of analysis requests which were answered by another request for the same input
+     */
+    long getAnalysisJoinedCount();
+    
+    int getAnalysisQueueDepth();
+    
+    long getAnalysisMaxWaitTime();
+    
+    int getEnvironmentsCount();
+    
+    long getEnvironmentsEstimatedSize();
+    
+    void reset();
+}
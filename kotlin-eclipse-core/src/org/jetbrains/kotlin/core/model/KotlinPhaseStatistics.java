@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model;
+
+import java.beans.ConstructorProperties;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Snapshot of latency and cache statistics of one phase. Times are in milliseconds.
+ */
+public class KotlinPhaseStatistics {
+    private final long count;
+    private final long totalTime;
+    private final long maxTime;
+    private final long[] histogram;
+    private final long cacheHitCount;
+    private final long cacheMissCount;
+    
+    @ConstructorProperties({"count", "totalTime", "maxTime", "histogram", "cacheHitCount", "cacheMissCount"})
+    public KotlinPhaseStatistics(long count, long totalTime, long maxTime, @NotNull long[] histogram, 
+            long cacheHitCount, long cacheMissCount) {
+        this.count = count;
+        this.totalTime = totalTime;
+        this.maxTime = maxTime;
+        this.histogram = histogram;
+        this.cacheHitCount = cacheHitCount;
+        this.cacheMissCount = cacheMissCount;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public long getTotalTime() {
+        return totalTime;
+    }
+    
+    public long getMaxTime() {
+        return maxTime;
+    }
+    
+    /**
+     * Number of invocations in each bucket of {@link KotlinPerformanceStatisticsMXBean#getHistogramBounds()}
+     */
+    @NotNull
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+    
+    public long getCacheHitCount() {
+        return cacheHitCount;
+    }
+    
+    public long getCacheMissCount() {
+        return cacheMissCount;
+    }
+    
+    @Override
+    public String toString() {
+        return "count=" + count + ", total=" + totalTime + "ms, max=" + maxTime + "ms, hits=" + cacheHitCount + 
+                ", misses=" + cacheMissCount;
+    }
+}
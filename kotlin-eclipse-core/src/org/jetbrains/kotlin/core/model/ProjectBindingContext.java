@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.BindingContext;
+import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics;
+import org.jetbrains.kotlin.resolve.diagnostics.DiagnosticsWithSuppression;
+import org.jetbrains.kotlin.util.slicedMap.ReadOnlySlice;
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
+
+import com.google.common.collect.ImmutableMap;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+
+/**
+ * Binding context of a project assembled from contexts of analyses in which each file was resolved last time.
+ * Data about psi elements is taken from the context of their file, other data from the newest context which has it.
+ */
+class ProjectBindingContext implements BindingContext {
+    
+    private final Map<PsiFile, BindingContext> fileContexts;
+    private final List<BindingContext> contexts;
+    private final Diagnostics diagnostics;
+    
+    /**
+     * @param contexts distinct contexts, newest first
+     */
+    ProjectBindingContext(@NotNull Map<JetFile, BindingContext> fileContexts, @NotNull List<BindingContext> contexts, 
+            @NotNull Collection<Diagnostic> diagnostics) {
+        this.fileContexts = new HashMap<PsiFile, BindingContext>(fileContexts);
+        this.contexts = new ArrayList<>(contexts);
+        this.diagnostics = new DiagnosticsWithSuppression(this, diagnostics);
+    }
+    
+    @Override
+    @NotNull
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+    
+    @Override
+    @Nullable
+    public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        if (key instanceof PsiElement) {
+            BindingContext fileContext = fileContexts.get(((PsiElement) key).getContainingFile());
+            if (fileContext != null) {
+                return fileContext.get(slice, key);
+            }
+        }
+        
+        V defaultValue = null;
+        for (BindingContext context : contexts) {
+            V value = context.get(slice, key);
+            if (value != null && !Boolean.FALSE.equals(value)) {
+                return value;
+            }
+            
+            if (defaultValue == null) {
+                defaultValue = value; // Boolean slices return false for absent keys
+            }
+        }
+        
+        return defaultValue;
+    }
+    
+    @Override
+    @NotNull
+    public <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
+        Set<K> keys = new LinkedHashSet<>();
+        for (BindingContext context : contexts) {
+            keys.addAll(context.getKeys(slice));
+        }
+        
+        return keys;
+    }
+    
+    @Override
+    @NotNull
+    public <K, V> ImmutableMap<K, V> getSliceContents(@NotNull ReadOnlySlice<K, V> slice) {
+        Map<K, V> contents = new HashMap<>();
+        for (int i = contexts.size() - 1; i >= 0; --i) {
+            contents.putAll(contexts.get(i).getSliceContents(slice));
+        }
+        
+        return ImmutableMap.copyOf(contents);
+    }
+}
@@ -22,6 +22,7 @@ import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 import org.eclipse.jdt.core.IJavaProject;
 import org.jetbrains.annotations.NotNull;
@@ -30,7 +31,10 @@ import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport;
 import org.jetbrains.kotlin.context.ContextPackage;
 import org.jetbrains.kotlin.context.GlobalContext;
 import org.jetbrains.kotlin.context.ModuleContext;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.injectors.EclipseInjectorForTopDownAnalyzerForJvm;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.Phase;
 import org.jetbrains.kotlin.core.utils.ProjectUtils;
 import org.jetbrains.kotlin.descriptors.ClassDescriptor;
 import org.jetbrains.kotlin.descriptors.PackageFragmentProvider;
@@ -81,20 +85,20 @@ public enum EclipseAnalyzerFacadeForJVM {
             @NotNull final Collection<JetFile> filesToAnalyze 
     ) {
         
-        LinkedHashSet<JetFile> allFiles = new LinkedHashSet<JetFile>();
-        allFiles.addAll(filesToAnalyze);
-        
-        Set<String> addedFiles = Sets.newHashSet();
-        for (JetFile jetFile : filesToAnalyze) {
-            addedFiles.add(jetFile.getVirtualFile().getPath());
-        }
+        Collection<JetFile> allFiles = collectAllFiles(javaProject, filesToAnalyze);
         
-        for (JetFile jetFile : ProjectUtils.getSourceFilesWithDependencies(javaProject)) {
-            if (!addedFiles.contains(jetFile.getVirtualFile().getPath())) {
-                allFiles.add(jetFile);
-            }
+        Lock psiReadLock = KotlinPsiManager.INSTANCE.getPsiReadLock();
+        psiReadLock.lock();
+        try {
+            return analyzeFiles(javaProject, project, filesToAnalyze, allFiles);
+        } finally {
+            psiReadLock.unlock();
         }
-        
+    }
+    
+    @NotNull
+    private static AnalysisResult analyzeFiles(IJavaProject javaProject, Project project, 
+            @NotNull Collection<JetFile> filesToAnalyze, @NotNull Collection<JetFile> allFiles) {
         GlobalContext globalContext = ContextPackage.GlobalContext();
         FileBasedDeclarationProviderFactory providerFactory = new FileBasedDeclarationProviderFactory(
                 globalContext.getStorageManager(), allFiles);
@@ -104,6 +108,7 @@ public enum EclipseAnalyzerFacadeForJVM {
         
         EclipseInjectorForTopDownAnalyzerForJvm injector = new EclipseInjectorForTopDownAnalyzerForJvm(
                 moduleContext, javaProject, trace, providerFactory, GlobalSearchScope.allScope(project));
+        long start = System.nanoTime();
         try {
             List<PackageFragmentProvider> additionalProviders = Lists.newArrayList();
             additionalProviders.add(injector.getJavaDescriptorResolver().getPackageFragmentProvider());
@@ -113,6 +118,31 @@ public enum EclipseAnalyzerFacadeForJVM {
         }
         finally {
             injector.destroy();
+            KotlinPerformanceStatistics.INSTANCE.record(Phase.ANALYSIS, start);
         }
     }
+    
+    /**
+     * Returns files to analyze together with all other source files of the project and its dependencies, 
+     * which are needed to resolve declarations
+     */
+    @NotNull
+    public static Collection<JetFile> collectAllFiles(@NotNull IJavaProject javaProject, 
+            @NotNull Collection<JetFile> filesToAnalyze) {
+        LinkedHashSet<JetFile> allFiles = new LinkedHashSet<JetFile>();
+        allFiles.addAll(filesToAnalyze);
+        
+        Set<String> addedFiles = Sets.newHashSet();
+        for (JetFile jetFile : filesToAnalyze) {
+            addedFiles.add(jetFile.getVirtualFile().getPath());
+        }
+        
+        for (JetFile jetFile : ProjectUtils.getSourceFilesWithDependencies(javaProject)) {
+            if (!addedFiles.contains(jetFile.getVirtualFile().getPath())) {
+                allFiles.add(jetFile);
+            }
+        }
+        
+        return allFiles;
+    }
 }
@@ -0,0 +1,484 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jdt.core.IJavaProject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.psi.JetDeclaration;
+import org.jetbrains.kotlin.psi.JetFile;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+
+/**
+ * Orders analyses of a project by priority and runs them one at a time. Request for a file which is already 
+ * queued or running for the same psi is joined, a queued request for the same file with older psi is replaced 
+ * by the newer one. Requests for several files are keyed by the set of files. All waiters of a request get the 
+ * same result.
+ * <p>
+ * Requests are run by their waiting threads: a thread runs its request when it is the most important queued one 
+ * and nothing is running, so a caller never runs analysis submitted by somebody else. Running build analysis is 
+ * canceled when an editor or navigation request arrives and is queued again, the session survives cancellation.
+ * <p>
+ * Waiting threads are woken on every change of the scheduler state, so a canceled caller leaves at the latest 
+ * when the running analysis is finished.
+ */
+public class KotlinAnalysisScheduler {
+    
+    public enum Priority {
+        EDITOR,
+        NAVIGATION,
+        LIGHT_CLASSES,
+        BUILD
+    }
+    
+    private static final String PROJECT_REQUEST_KEY_PREFIX = "*";
+    private static final String PROJECT_REQUEST_KEY_SEPARATOR = "|";
+    private static final String DECLARATION_KEY_SEPARATOR = "#";
+    
+    private final KotlinAnalysisSession analysisSession;
+    
+    private final PriorityQueue<Request> queue = new PriorityQueue<>(11, new Comparator<Request>() {
+        @Override
+        public int compare(Request first, Request second) {
+            int byPriority = first.priority.compareTo(second.priority);
+            return byPriority != 0 ? byPriority : Long.compare(first.sequenceNumber, second.sequenceNumber);
+        }
+    });
+    private final Map<String, Request> queuedRequests = new HashMap<>();
+    private Request runningRequest = null;
+    private Thread runningThread = null;
+    private long sequenceNumber = 0;
+    
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong joinedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong preemptedCount = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    
+    public KotlinAnalysisScheduler(@NotNull KotlinAnalysisSession analysisSession) {
+        this.analysisSession = analysisSession;
+    }
+    
+    @NotNull
+    public static KotlinAnalysisScheduler getInstance(@NotNull IJavaProject javaProject) {
+        Project ideaProject = KotlinEnvironment.getEnvironment(javaProject).getProject();
+        return ServiceManager.getService(ideaProject, KotlinAnalysisScheduler.class);
+    }
+    
+    @NotNull
+    public AnalysisResult analyzeFile(@NotNull JetFile jetFile, @NotNull Priority priority, 
+            @NotNull IProgressMonitor monitor) {
+        if (isRunningInCurrentThread()) {
+            return analysisSession.analyzeFile(jetFile, monitor);
+        }
+        
+        String key = jetFile.getVirtualFile().getPath();
+        return await(submit(key, true, Collections.singletonList(jetFile), null, priority, monitor), monitor);
+    }
+    
+    @NotNull
+    public AnalysisResult analyzeDeclaration(@NotNull JetDeclaration declaration, @NotNull Priority priority, 
+            @NotNull IProgressMonitor monitor) {
+        if (isRunningInCurrentThread()) {
+            return analysisSession.analyzeDeclaration(declaration, monitor);
+        }
+        
+        JetFile jetFile = declaration.getContainingJetFile();
+        String key = jetFile.getVirtualFile().getPath() + DECLARATION_KEY_SEPARATOR + declaration.getTextOffset();
+        return await(submit(key, true, Collections.singletonList(jetFile), declaration, priority, monitor), monitor);
+    }
+    
+    @NotNull
+    public AnalysisResult analyzeFiles(@NotNull Collection<JetFile> filesToAnalyze, @NotNull Priority priority) {
+        if (isRunningInCurrentThread()) {
+            return analysisSession.analyzeFiles(filesToAnalyze);
+        }
+        
+        IProgressMonitor monitor = new NullProgressMonitor();
+        return await(submit(getProjectRequestKey(filesToAnalyze), false, filesToAnalyze, null, priority, monitor), monitor);
+    }
+    
+    @NotNull
+    private static String getProjectRequestKey(@NotNull Collection<JetFile> files) {
+        List<String> paths = new ArrayList<>(files.size());
+        for (JetFile jetFile : files) {
+            paths.add(jetFile.getVirtualFile().getPath());
+        }
+        Collections.sort(paths);
+        
+        StringBuilder key = new StringBuilder(PROJECT_REQUEST_KEY_PREFIX);
+        for (String path : paths) {
+            key.append(path).append(PROJECT_REQUEST_KEY_SEPARATOR);
+        }
+        
+        return key.toString();
+    }
+    
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+    
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+    
+    /**
+     * Number of requests which were answered by a queued or running analysis of the same psi
+     */
+    public long getJoinedCount() {
+        return joinedCount.get();
+    }
+    
+    /**
+     * Number of queued requests which were replaced by a request for newer psi of the same file
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+    
+    /**
+     * Number of times running build analysis was canceled in favor of an editor or navigation request
+     */
+    public long getPreemptedCount() {
+        return preemptedCount.get();
+    }
+    
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+    
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+    
+    /**
+     * Analysis can request another one, e.g. when Java model asks for light classes, it should not wait for itself
+     */
+    private synchronized boolean isRunningInCurrentThread() {
+        return runningThread == Thread.currentThread() || analysisSession.isParallelWorker();
+    }
+    
+    @NotNull
+    private synchronized Request submit(@NotNull String key, boolean fileScoped, @NotNull Collection<JetFile> files, 
+            @Nullable JetDeclaration declaration, @NotNull Priority priority, @NotNull IProgressMonitor monitor) {
+        requestCount.incrementAndGet();
+        
+        if (runningRequest != null && runningRequest.key.equals(key) && 
+                runningRequest.hasSameInput(fileScoped, files, declaration)) {
+            joinedCount.incrementAndGet();
+            return runningRequest;
+        }
+        
+        Request queued = queuedRequests.get(key);
+        if (queued != null && queued.fileScoped == fileScoped) {
+            if (queued.hasSameInput(fileScoped, files, declaration)) {
+                joinedCount.incrementAndGet();
+            } else {
+                coalescedCount.incrementAndGet();
+                queued.setInput(files, declaration);
+            }
+            
+            queued.monitor.add(monitor);
+            if (priority.compareTo(queued.priority) < 0) {
+                queue.remove(queued);
+                queued.priority = priority;
+                queue.add(queued);
+            }
+            
+            preemptBuildIfNeeded(priority);
+            return queued;
+        }
+        
+        Request request = new Request(key, fileScoped, files, declaration, priority, monitor, sequenceNumber++);
+        queuedRequests.put(key, request);
+        queue.add(request);
+        
+        preemptBuildIfNeeded(priority);
+        return request;
+    }
+    
+    private void preemptBuildIfNeeded(@NotNull Priority priority) {
+        boolean interactive = priority == Priority.EDITOR || priority == Priority.NAVIGATION;
+        if (interactive && runningRequest != null && runningRequest.priority == Priority.BUILD) {
+            runningRequest.monitor.preempt();
+        }
+    }
+    
+    /**
+     * @throws OperationCanceledException if the caller's monitor is canceled before the request is done
+     */
+    @NotNull
+    private AnalysisResult await(@NotNull Request request, @NotNull IProgressMonitor monitor) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (request.done) {
+                        break;
+                    }
+                    
+                    if (monitor.isCanceled()) {
+                        cancelIfAbandoned(request);
+                        throw new OperationCanceledException();
+                    }
+                    
+                    if (runningRequest != null || queue.peek() != request) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                        continue;
+                    }
+                    
+                    queue.poll();
+                    if (queuedRequests.get(request.key) == request) {
+                        queuedRequests.remove(request.key);
+                    }
+                    runningRequest = request;
+                    runningThread = Thread.currentThread();
+                }
+                
+                run(request);
+            }
+            
+            return getResult(request);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private void run(@NotNull Request request) {
+        AnalysisResult result = null;
+        Throwable failure = null;
+        try {
+            result = request.analyze();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        } finally {
+            synchronized (this) {
+                runningRequest = null;
+                runningThread = null;
+                
+                if (failure instanceof OperationCanceledException && request.monitor.isPreempted() && 
+                        !request.monitor.isAbandoned()) {
+                    requeue(request);
+                } else {
+                    request.complete(result, failure);
+                }
+                
+                notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Puts preempted request back to the queue, it keeps its sequence number and so goes before later requests 
+     * of the same priority
+     */
+    private void requeue(@NotNull Request request) {
+        preemptedCount.incrementAndGet();
+        request.monitor.resume();
+        
+        queue.add(request);
+        if (!queuedRequests.containsKey(request.key)) {
+            queuedRequests.put(request.key, request);
+        }
+    }
+    
+    /**
+     * Drops the queued request if all its waiters have canceled, otherwise it would stay in the queue with no thread 
+     * to run it. Other waiters are woken in any case, one of them should run the request instead of the canceled one.
+     */
+    private synchronized void cancelIfAbandoned(@NotNull Request request) {
+        if (request.monitor.isAbandoned() && queue.remove(request)) {
+            if (queuedRequests.get(request.key) == request) {
+                queuedRequests.remove(request.key);
+            }
+            request.complete(null, new OperationCanceledException());
+        }
+        
+        notifyAll();
+    }
+    
+    @NotNull
+    private AnalysisResult getResult(@NotNull Request request) {
+        Throwable failure = request.failure;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        
+        return request.result;
+    }
+    
+    private void started(@NotNull Request request) {
+        long waitTime = System.currentTimeMillis() - request.submitTime;
+        totalWaitTime.addAndGet(waitTime);
+        
+        long max = maxWaitTime.get();
+        while (waitTime > max && !maxWaitTime.compareAndSet(max, waitTime)) {
+            max = maxWaitTime.get();
+        }
+    }
+    
+    private class Request {
+        final String key;
+        final boolean fileScoped;
+        final long sequenceNumber;
+        final long submitTime = System.currentTimeMillis();
+        final RequestMonitor monitor = new RequestMonitor();
+        
+        Priority priority;
+        List<JetFile> files;
+        long[] modificationStamps;
+        JetDeclaration declaration;
+        
+        // Guarded by the scheduler
+        boolean started = false;
+        boolean done = false;
+        AnalysisResult result = null;
+        Throwable failure = null;
+        
+        Request(@NotNull String key, boolean fileScoped, @NotNull Collection<JetFile> files, 
+                @Nullable JetDeclaration declaration, @NotNull Priority priority, @NotNull IProgressMonitor monitor, 
+                long sequenceNumber) {
+            this.key = key;
+            this.fileScoped = fileScoped;
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumber;
+            this.monitor.add(monitor);
+            setInput(files, declaration);
+        }
+        
+        void setInput(@NotNull Collection<JetFile> newFiles, @Nullable JetDeclaration newDeclaration) {
+            declaration = newDeclaration;
+            files = new ArrayList<>(newFiles);
+            modificationStamps = new long[files.size()];
+            for (int i = 0; i < files.size(); ++i) {
+                modificationStamps[i] = files.get(i).getModificationStamp();
+            }
+        }
+        
+        boolean hasSameInput(boolean otherFileScoped, @NotNull Collection<JetFile> otherFiles, 
+                @Nullable JetDeclaration otherDeclaration) {
+            if (fileScoped != otherFileScoped || declaration != otherDeclaration || files.size() != otherFiles.size()) {
+                return false;
+            }
+            
+            int i = 0;
+            for (JetFile jetFile : otherFiles) {
+                if (jetFile != files.get(i) || jetFile.getModificationStamp() != modificationStamps[i]) {
+                    return false;
+                }
+                i++;
+            }
+            
+            return true;
+        }
+        
+        @NotNull
+        AnalysisResult analyze() {
+            JetDeclaration declarationToAnalyze;
+            List<JetFile> filesToAnalyze;
+            synchronized (KotlinAnalysisScheduler.this) {
+                if (!started) {
+                    started = true;
+                    started(this);
+                }
+                declarationToAnalyze = declaration;
+                filesToAnalyze = files;
+            }
+            
+            if (declarationToAnalyze != null) {
+                return analysisSession.analyzeDeclaration(declarationToAnalyze, monitor);
+            }
+            
+            return fileScoped ? 
+                    analysisSession.analyzeFile(filesToAnalyze.get(0), monitor) :
+                    analysisSession.analyzeFiles(filesToAnalyze, monitor);
+        }
+        
+        void complete(@Nullable AnalysisResult analysisResult, @Nullable Throwable analysisFailure) {
+            result = analysisResult;
+            failure = analysisFailure;
+            done = true;
+        }
+    }
+    
+    /**
+     * Monitor of a request shared by several callers, it is canceled when all of them have canceled or when 
+     * the request is preempted by a more important one
+     */
+    private static class RequestMonitor extends NullProgressMonitor {
+        private final List<IProgressMonitor> monitors = new CopyOnWriteArrayList<>();
+        private volatile boolean preempted = false;
+        
+        void add(@NotNull IProgressMonitor monitor) {
+            monitors.add(monitor);
+        }
+        
+        void preempt() {
+            preempted = true;
+        }
+        
+        void resume() {
+            preempted = false;
+        }
+        
+        boolean isPreempted() {
+            return preempted;
+        }
+        
+        @Override
+        public boolean isCanceled() {
+            return preempted || isAbandoned();
+        }
+        
+        boolean isAbandoned() {
+            for (IProgressMonitor monitor : monitors) {
+                if (!monitor.isCanceled()) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+    }
+}
@@ -0,0 +1,583 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.Lock;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.context.ContextPackage;
+import org.jetbrains.kotlin.context.GlobalContext;
+import org.jetbrains.kotlin.context.ModuleContext;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.injectors.EclipseInjectorForTopDownAnalyzerForJvm;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.Phase;
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaModelListener;
+import org.jetbrains.kotlin.core.utils.ProjectUtils;
+import org.jetbrains.kotlin.descriptors.PackageFragmentProvider;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.psi.JetDeclaration;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.BindingContext;
+import org.jetbrains.kotlin.resolve.DelegatingBindingTrace;
+import org.jetbrains.kotlin.resolve.TopDownAnalysisMode;
+import org.jetbrains.kotlin.resolve.TraceEntryFilter;
+import org.jetbrains.kotlin.resolve.calls.smartcasts.DataFlowInfo;
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory;
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
+
+import com.google.common.collect.Lists;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
+
+/**
+ * Long living analysis session of a project. The module, Java and library descriptors and lazily resolved 
+ * declarations are kept between analyses while declarations of the project files do not change, so edits inside 
+ * code blocks cost only re-analysis of the edited file bodies. Any change outside code blocks, in the set of files, 
+ * in Java declarations or in the classpath starts a new session.
+ */
+public class KotlinAnalysisSession {
+    
+    // Committed data of each analysis is a new layer over the previous ones, so lookups slow down with every reuse
+    private static final int MAX_ANALYSES_PER_SESSION = 20;
+    
+    /**
+     * Enables resolution of function and property bodies of different files on all available cores, 
+     * the property is read for every analysis
+     */
+    public static final String PARALLEL_ANALYSIS_PROPERTY = "kotlin.analysis.parallel";
+    
+    private static final int MIN_FILES_FOR_PARALLEL_ANALYSIS = 2;
+    
+    private final IJavaProject javaProject;
+    private final Project project;
+    
+    private Session session = null;
+    private boolean analyzing = false;
+    private final ThreadLocal<Boolean> parallelWorker = new ThreadLocal<>();
+    
+    public KotlinAnalysisSession(@NotNull IJavaProject javaProject, @NotNull Project project) {
+        this.javaProject = javaProject;
+        this.project = project;
+    }
+    
+    @NotNull
+    public static KotlinAnalysisSession getInstance(@NotNull IJavaProject javaProject) {
+        Project ideaProject = KotlinEnvironment.getEnvironment(javaProject).getProject();
+        return ServiceManager.getService(ideaProject, KotlinAnalysisSession.class);
+    }
+    
+    @NotNull
+    public AnalysisResult analyzeFiles(@NotNull Collection<JetFile> filesToAnalyze) {
+        return analyzeFiles(filesToAnalyze, new NullProgressMonitor());
+    }
+    
+    /**
+     * @throws OperationCanceledException if the monitor is canceled before the analysis is finished
+     */
+    @NotNull
+    public AnalysisResult analyzeFiles(@NotNull Collection<JetFile> filesToAnalyze, @NotNull IProgressMonitor monitor) {
+        if (isParallelWorker()) {
+            // Session is locked by the thread which waits for this worker
+            return EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(javaProject, project, filesToAnalyze);
+        }
+        
+        synchronized (this) {
+            Lock psiReadLock = KotlinPsiManager.INSTANCE.getPsiReadLock();
+            psiReadLock.lock();
+            try {
+                return analyzeFilesInSession(filesToAnalyze, monitor);
+            } finally {
+                psiReadLock.unlock();
+            }
+        }
+    }
+    
+    @NotNull
+    private AnalysisResult analyzeFilesInSession(@NotNull Collection<JetFile> filesToAnalyze, 
+            @NotNull IProgressMonitor monitor) {
+        checkCanceled(monitor);
+        
+        if (analyzing) {
+            // Analysis needs another one, e.g. for light classes; trace of the session is busy with the current one
+            return EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(javaProject, project, filesToAnalyze);
+        }
+        
+        prepareSession(filesToAnalyze);
+        return analyze(filesToAnalyze, null, monitor);
+    }
+    
+    private void prepareSession(@NotNull Collection<JetFile> filesToAnalyze) {
+        // Taken before files are collected, so changes made during collection will be noticed by the next analysis 
+        long psiModificationCount = KotlinPsiManager.INSTANCE.getModificationCount();
+        long javaModificationCount = EclipseJavaModelListener.getModificationCount();
+        
+        Collection<JetFile> allFiles = EclipseAnalyzerFacadeForJVM.collectAllFiles(javaProject, filesToAnalyze);
+        if (session == null || !session.isUpToDate(allFiles)) {
+            reset();
+            session = new Session(allFiles, javaModificationCount);
+        }
+        session.psiModificationCount = psiModificationCount;
+    }
+    
+    /**
+     * Resolves bodies of the given file only. While no file of the project is added, removed or reparsed from scratch, 
+     * the rest of the project is neither collected nor analyzed again, its declarations are resolved lazily on demand.
+     */
+    @NotNull
+    public AnalysisResult analyzeFile(@NotNull JetFile jetFile, @NotNull IProgressMonitor monitor) {
+        List<JetFile> filesToAnalyze = Collections.singletonList(jetFile);
+        if (isParallelWorker()) {
+            return analyzeFiles(filesToAnalyze, monitor);
+        }
+        
+        if (!isProjectFile(jetFile)) {
+            return EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(javaProject, project, filesToAnalyze);
+        }
+        
+        synchronized (this) {
+            checkCanceled(monitor);
+            
+            Lock psiReadLock = KotlinPsiManager.INSTANCE.getPsiReadLock();
+            psiReadLock.lock();
+            try {
+                if (!analyzing && session != null && session.isUpToDate(jetFile)) {
+                    return analyze(filesToAnalyze, null, monitor);
+                }
+                
+                return analyzeFilesInSession(filesToAnalyze, monitor);
+            } finally {
+                psiReadLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Resolves the body of the given non-local declaration only, other declarations of its file are resolved lazily 
+     * when they are referenced and their bodies are not analyzed. Bindings of expressions outside the declaration 
+     * are not available in the result.
+     */
+    @NotNull
+    public AnalysisResult analyzeDeclaration(@NotNull JetDeclaration declaration, @NotNull IProgressMonitor monitor) {
+        JetFile jetFile = declaration.getContainingJetFile();
+        List<JetFile> containingFile = Collections.singletonList(jetFile);
+        if (isParallelWorker()) {
+            return analyzeFiles(containingFile, monitor);
+        }
+        
+        if (!isProjectFile(jetFile)) {
+            return EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(javaProject, project, containingFile);
+        }
+        
+        synchronized (this) {
+            checkCanceled(monitor);
+            
+            Lock psiReadLock = KotlinPsiManager.INSTANCE.getPsiReadLock();
+            psiReadLock.lock();
+            try {
+                if (analyzing) {
+                    return analyzeFilesInSession(containingFile, monitor);
+                }
+                
+                if (session == null || !session.isUpToDate(jetFile)) {
+                    prepareSession(containingFile);
+                }
+                
+                return analyze(Collections.<JetFile>emptyList(), declaration, monitor);
+            } finally {
+                psiReadLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Files parsed from text, e.g. with the completion marker, would replace the project files in the session and 
+     * start a new one, so they are analyzed without the session. Files unknown to the session are looked up by 
+     * location among source files of the project and its dependencies, without parsing the whole project.
+     */
+    private boolean isProjectFile(@NotNull JetFile jetFile) {
+        synchronized (this) {
+            if (session != null && session.fileStates.containsKey(jetFile)) {
+                return true;
+            }
+        }
+        
+        VirtualFile virtualFile = jetFile.getVirtualFile();
+        if (virtualFile == null) {
+            return false;
+        }
+        
+        IFile file = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(virtualFile.getPath()));
+        if (file == null || !KotlinPsiManager.INSTANCE.isParsedFile(file, jetFile)) {
+            return false;
+        }
+        
+        try {
+            IProject fileProject = file.getProject();
+            if (!fileProject.equals(javaProject.getProject()) && 
+                    !ProjectUtils.getDependencyProjects(javaProject).contains(fileProject)) {
+                return false;
+            }
+            
+            return KotlinPsiManager.INSTANCE.isKotlinSourceFile(file, JavaCore.create(fileProject));
+        } catch (JavaModelException e) {
+            KotlinLogger.logError(e);
+            return false;
+        }
+    }
+    
+    /**
+     * Whether the current thread resolves bodies for a parallel analysis of this session
+     */
+    boolean isParallelWorker() {
+        return parallelWorker.get() != null;
+    }
+    
+    @NotNull
+    private AnalysisResult analyze(@NotNull Collection<JetFile> filesToAnalyze, @Nullable JetDeclaration declaration, 
+            @NotNull IProgressMonitor monitor) {
+        long start = System.nanoTime();
+        try {
+            analyzing = true;
+            return session.analyze(filesToAnalyze, declaration, monitor);
+        } catch (OperationCanceledException e) {
+            // Cancellation is checked only between files, never inside lazy computations, so the session is intact
+            throw e;
+        } catch (RuntimeException e) {
+            // Lazy values of the session remember exceptions thrown during their computation, 
+            // so the session cannot be used anymore
+            reset();
+            throw e;
+        } finally {
+            analyzing = false;
+            KotlinPerformanceStatistics.INSTANCE.record(Phase.ANALYSIS, start);
+        }
+    }
+    
+    private static void checkCanceled(@NotNull IProgressMonitor monitor) {
+        if (monitor.isCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+    
+    public synchronized void reset() {
+        if (session != null) {
+            KotlinPsiManager.INSTANCE.releaseParsedFiles(session.fileStates.keySet());
+            session.injector.destroy();
+            session = null;
+        }
+    }
+    
+    private class Session {
+        private final ModuleContext moduleContext;
+        private final SessionBindingTrace trace = new SessionBindingTrace();
+        private final EclipseInjectorForTopDownAnalyzerForJvm injector;
+        private final List<PackageFragmentProvider> additionalProviders = Lists.newArrayList();
+        
+        private final Map<JetFile, FileState> fileStates = new HashMap<>();
+        
+        private BindingContext committedContext = BindingContext.EMPTY;
+        private final List<Diagnostic> declarationDiagnostics = new ArrayList<>();
+        private final Set<SessionBindingTrace.DiagnosticKey> declarationDiagnosticKeys = new HashSet<>();
+        
+        private boolean initialized = false;
+        private int analysesCount = 0;
+        private long psiModificationCount = -1;
+        
+        // Java descriptors are resolved lazily and never dropped, so any change of Java declarations starts a new session
+        private final long javaModificationCount;
+        
+        Session(@NotNull Collection<JetFile> allFiles, long javaModificationCount) {
+            this.javaModificationCount = javaModificationCount;
+            
+            for (JetFile jetFile : allFiles) {
+                fileStates.put(jetFile, new FileState(jetFile));
+            }
+            KotlinPsiManager.INSTANCE.retainParsedFiles(fileStates.keySet());
+            
+            GlobalContext globalContext = ContextPackage.GlobalContext();
+            FileBasedDeclarationProviderFactory providerFactory = new FileBasedDeclarationProviderFactory(
+                    globalContext.getStorageManager(), allFiles);
+            
+            moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(project);
+            injector = new EclipseInjectorForTopDownAnalyzerForJvm(
+                    moduleContext, javaProject, trace, providerFactory, GlobalSearchScope.allScope(project));
+            
+            additionalProviders.add(injector.getJavaDescriptorResolver().getPackageFragmentProvider());
+        }
+        
+        boolean isUpToDate(@NotNull Collection<JetFile> allFiles) {
+            if (analysesCount >= MAX_ANALYSES_PER_SESSION || allFiles.size() != fileStates.size() || 
+                    javaModificationCount != EclipseJavaModelListener.getModificationCount()) {
+                return false;
+            }
+            
+            for (JetFile jetFile : allFiles) {
+                FileState state = fileStates.get(jetFile);
+                if (state == null || !state.isUpToDate(jetFile)) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        boolean isUpToDate(@NotNull JetFile jetFile) {
+            if (analysesCount >= MAX_ANALYSES_PER_SESSION || 
+                    psiModificationCount != KotlinPsiManager.INSTANCE.getModificationCount() ||
+                    javaModificationCount != EclipseJavaModelListener.getModificationCount() ||
+                    !fileStates.containsKey(jetFile)) {
+                return false;
+            }
+            
+            // Files are not collected again, but any of them could be changed in place by its own editor 
+            for (Map.Entry<JetFile, FileState> entry : fileStates.entrySet()) {
+                if (!entry.getValue().isUpToDate(entry.getKey())) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        /**
+         * @throws OperationCanceledException if the monitor is canceled, what was resolved before is kept
+         */
+        @NotNull
+        AnalysisResult analyze(@NotNull Collection<JetFile> filesToAnalyze, @Nullable JetDeclaration declaration, 
+                @NotNull IProgressMonitor monitor) {
+            DelegatingBindingTrace layer = new DelegatingBindingTrace(committedContext, 
+                    "Analysis of " + javaProject.getElementName());
+            trace.startLayer(layer, declarationDiagnostics);
+            
+            boolean completed = true;
+            if (declaration != null) {
+                resolveDeclaration(declaration);
+            } else {
+                completed = resolve(filesToAnalyze, layer, monitor);
+            }
+            
+            // Lazy values are never interrupted, so data of a canceled analysis is complete for what it has resolved
+            analysesCount++;
+            commit(layer);
+            
+            if (!completed) {
+                throw new OperationCanceledException();
+            }
+            
+            return AnalysisResult.success(layer.getBindingContext(), moduleContext.getModule());
+        }
+        
+        /**
+         * @return false if the analysis was canceled, the monitor is checked only between files
+         */
+        private boolean resolve(@NotNull Collection<JetFile> filesToAnalyze, @NotNull DelegatingBindingTrace layer, 
+                @NotNull IProgressMonitor monitor) {
+            initialize();
+            
+            if (Boolean.getBoolean(PARALLEL_ANALYSIS_PROPERTY) && filesToAnalyze.size() >= MIN_FILES_FOR_PARALLEL_ANALYSIS) {
+                return resolveInParallel(filesToAnalyze, layer, monitor);
+            }
+            
+            for (JetFile jetFile : filesToAnalyze) {
+                if (monitor.isCanceled()) {
+                    return false;
+                }
+                
+                injector.getLazyTopDownAnalyzer().analyzeDeclarations(TopDownAnalysisMode.TopLevelDeclarations, 
+                        Collections.<PsiElement>singletonList(jetFile), DataFlowInfo.EMPTY);
+            }
+            
+            return true;
+        }
+        
+        private void resolveDeclaration(@NotNull JetDeclaration declaration) {
+            initialize();
+            
+            injector.getLazyTopDownAnalyzer().analyzeDeclarations(TopDownAnalysisMode.TopLevelDeclarations, 
+                    Collections.<PsiElement>singletonList(declaration), DataFlowInfo.EMPTY);
+        }
+        
+        private void initialize() {
+            if (!initialized) {
+                // The first analysis initializes the module with package fragment providers
+                injector.getLazyTopDownAnalyzerForTopLevel().analyzeFiles(TopDownAnalysisMode.TopLevelDeclarations, 
+                        Collections.<JetFile>emptyList(), additionalProviders);
+                initialized = true;
+            }
+        }
+        
+        /**
+         * Declarations of the module are resolved once on the current thread, then files are analyzed on a fork-join 
+         * pool shared by all sessions. Each worker writes to its own layer over the resolved declarations, layers are merged when all files 
+         * are analyzed, so the shared data is only read while workers are running. Workers skip their files once 
+         * the monitor is canceled.
+         */
+        private boolean resolveInParallel(@NotNull Collection<JetFile> filesToAnalyze, @NotNull DelegatingBindingTrace layer, 
+                @NotNull IProgressMonitor monitor) {
+            injector.getResolveSession().forceResolveAll();
+            
+            ForkJoinPool pool = ParallelAnalysisPoolHolder.POOL;
+            BindingContext declarationsContext = layer.getBindingContext();
+            List<ForkJoinTask<DelegatingBindingTrace>> tasks = new ArrayList<>();
+            for (JetFile jetFile : filesToAnalyze) {
+                tasks.add(pool.submit(new ResolveFileTask(this, jetFile, declarationsContext, monitor)));
+            }
+            
+            // Every worker is waited for, so a failed analysis does not reset the session while others still use it
+            List<DelegatingBindingTrace> workerLayers = new ArrayList<>();
+            RuntimeException failure = null;
+            for (ForkJoinTask<DelegatingBindingTrace> task : tasks) {
+                try {
+                    workerLayers.add(task.join());
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            
+            if (failure != null) {
+                throw failure;
+            }
+            
+            for (DelegatingBindingTrace workerLayer : workerLayers) {
+                workerLayer.addAllMyDataTo(layer);
+            }
+            
+            return !monitor.isCanceled();
+        }
+        
+        /**
+         * Keeps everything resolved by the analysis except data about code blocks, which will be analyzed again
+         */
+        private void commit(@NotNull DelegatingBindingTrace layer) {
+            DelegatingBindingTrace committedTrace = new DelegatingBindingTrace(committedContext, 
+                    "Committed declarations of " + javaProject.getElementName());
+            layer.addAllMyDataTo(committedTrace, new TraceEntryFilter() {
+                @Override
+                public boolean accept(@Nullable WritableSlice<?, ?> slice, Object key) {
+                    return !(key instanceof PsiElement) || !KotlinCodeBlocks.isInCodeBlock((PsiElement) key);
+                }
+            }, false);
+            committedContext = committedTrace.getBindingContext();
+            
+            for (Diagnostic diagnostic : layer.getBindingContext().getDiagnostics()) {
+                if (!KotlinCodeBlocks.isInCodeBlock(diagnostic.getPsiElement()) && 
+                        declarationDiagnosticKeys.add(new SessionBindingTrace.DiagnosticKey(diagnostic))) {
+                    declarationDiagnostics.add(diagnostic);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Pool is created on the first parallel analysis and lives as long as the plugin, its workers are daemon threads
+     */
+    private static class ParallelAnalysisPoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+    
+    private class ResolveFileTask implements Callable<DelegatingBindingTrace> {
+        private final Session owner;
+        private final JetFile jetFile;
+        private final BindingContext declarationsContext;
+        private final IProgressMonitor monitor;
+        
+        ResolveFileTask(@NotNull Session owner, @NotNull JetFile jetFile, @NotNull BindingContext declarationsContext, 
+                @NotNull IProgressMonitor monitor) {
+            this.owner = owner;
+            this.jetFile = jetFile;
+            this.declarationsContext = declarationsContext;
+            this.monitor = monitor;
+        }
+        
+        @Override
+        public DelegatingBindingTrace call() {
+            DelegatingBindingTrace workerLayer = new DelegatingBindingTrace(declarationsContext, 
+                    "Analysis of " + jetFile.getName());
+            if (monitor.isCanceled()) {
+                return workerLayer;
+            }
+            
+            parallelWorker.set(Boolean.TRUE);
+            owner.trace.startWorkerLayer(workerLayer);
+            try {
+                owner.injector.getLazyTopDownAnalyzer().analyzeDeclarations(TopDownAnalysisMode.TopLevelDeclarations, 
+                        Collections.<PsiElement>singletonList(jetFile), DataFlowInfo.EMPTY);
+            } finally {
+                owner.trace.finishWorkerLayer();
+                parallelWorker.remove();
+            }
+            
+            return workerLayer;
+        }
+    }
+    
+    private static class FileState {
+        private long modificationStamp;
+        private final long outOfBlockHash;
+        
+        FileState(@NotNull JetFile jetFile) {
+            this.modificationStamp = jetFile.getModificationStamp();
+            this.outOfBlockHash = KotlinCodeBlocks.computeOutOfBlockHash(jetFile);
+        }
+        
+        boolean isUpToDate(@NotNull JetFile jetFile) {
+            long currentStamp = jetFile.getModificationStamp();
+            if (currentStamp == modificationStamp) {
+                return true;
+            }
+            
+            if (KotlinCodeBlocks.computeOutOfBlockHash(jetFile) != outOfBlockHash) {
+                return false;
+            }
+            
+            modificationStamp = currentStamp;
+            return true;
+        }
+    }
+}
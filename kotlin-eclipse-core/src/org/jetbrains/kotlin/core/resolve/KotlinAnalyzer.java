@@ -18,31 +18,111 @@ package org.jetbrains.kotlin.core.resolve;
 
 import java.util.Collection;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jdt.core.IJavaProject;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.analyzer.AnalysisResult;
 import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler.Priority;
+import org.jetbrains.kotlin.psi.JetClassOrObject;
+import org.jetbrains.kotlin.psi.JetDeclaration;
+import org.jetbrains.kotlin.psi.JetElement;
 import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.psi.JetNamedFunction;
+import org.jetbrains.kotlin.psi.JetProperty;
+import org.jetbrains.kotlin.psi.JetPsiUtil;
 
-import com.google.common.collect.Lists;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.psi.PsiElement;
 
 public class KotlinAnalyzer {
     @NotNull
     public static AnalysisResult analyzeFile(@NotNull IJavaProject javaProject, @NotNull JetFile jetFile) {
-        return analyzeFiles(javaProject, Lists.newArrayList(jetFile));
+        return analyzeFile(javaProject, jetFile, Priority.EDITOR);
+    }
+    
+    @NotNull
+    public static AnalysisResult analyzeFile(@NotNull IJavaProject javaProject, @NotNull JetFile jetFile, 
+            @NotNull Priority priority) {
+        return analyzeFile(javaProject, jetFile, priority, new NullProgressMonitor());
+    }
+    
+    /**
+     * Analysis is aborted with {@link OperationCanceledException} as soon as the monitor is canceled, 
+     * e.g. when the analyzed document is changed again
+     */
+    @NotNull
+    public static AnalysisResult analyzeFile(@NotNull IJavaProject javaProject, @NotNull JetFile jetFile, 
+            @NotNull IProgressMonitor monitor) {
+        return analyzeFile(javaProject, jetFile, Priority.EDITOR, monitor);
+    }
+    
+    @NotNull
+    private static AnalysisResult analyzeFile(@NotNull IJavaProject javaProject, @NotNull JetFile jetFile, 
+            @NotNull Priority priority, @NotNull IProgressMonitor monitor) {
+        KotlinEnvironment environment = KotlinEnvironment.acquireEnvironment(javaProject);
+        try {
+            return getScheduler(environment).analyzeFile(jetFile, priority, monitor);
+        } finally {
+            environment.release();
+        }
+    }
+    
+    /**
+     * Resolves only the non-local declaration which contains the element, so the cost does not depend on the size 
+     * of the file. Bindings outside of that declaration are not available in the result. Elements outside of 
+     * declarations, e.g. in imports, are analyzed with the whole file.
+     */
+    @NotNull
+    public static AnalysisResult analyzeDeclaration(@NotNull IJavaProject javaProject, @NotNull JetElement element, 
+            @NotNull Priority priority) {
+        JetDeclaration declaration = getEnclosingNonLocalDeclaration(element);
+        if (declaration == null) {
+            return analyzeFile(javaProject, element.getContainingJetFile(), priority);
+        }
+        
+        KotlinEnvironment environment = KotlinEnvironment.acquireEnvironment(javaProject);
+        try {
+            return getScheduler(environment).analyzeDeclaration(declaration, priority, new NullProgressMonitor());
+        } finally {
+            environment.release();
+        }
+    }
+    
+    @Nullable
+    private static JetDeclaration getEnclosingNonLocalDeclaration(@NotNull JetElement element) {
+        PsiElement current = element;
+        while (current != null && !(current instanceof JetFile)) {
+            if (current instanceof JetNamedFunction || current instanceof JetProperty || current instanceof JetClassOrObject) {
+                JetDeclaration declaration = (JetDeclaration) current;
+                if (!JetPsiUtil.isLocal(declaration)) {
+                    return declaration;
+                }
+            }
+            
+            current = current.getParent();
+        }
+        
+        return null;
     }
     
     @NotNull
     public static AnalysisResult analyzeFiles(@NotNull IJavaProject javaProject, @NotNull KotlinEnvironment kotlinEnvironment, 
             @NotNull Collection<JetFile> filesToAnalyze) {
-        return EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(
-                javaProject, 
-                kotlinEnvironment.getProject(), 
-                filesToAnalyze);
+        return analyzeFiles(javaProject, kotlinEnvironment, filesToAnalyze, Priority.BUILD);
     }
     
-    private static AnalysisResult analyzeFiles(@NotNull IJavaProject javaProject, @NotNull Collection<JetFile> filesToAnalyze) {
-        KotlinEnvironment kotlinEnvironment = KotlinEnvironment.getEnvironment(javaProject);
-        return analyzeFiles(javaProject, kotlinEnvironment, filesToAnalyze);
+    @NotNull
+    public static AnalysisResult analyzeFiles(@NotNull IJavaProject javaProject, @NotNull KotlinEnvironment kotlinEnvironment, 
+            @NotNull Collection<JetFile> filesToAnalyze, @NotNull Priority priority) {
+        return getScheduler(kotlinEnvironment).analyzeFiles(filesToAnalyze, priority);
+    }
+    
+    @NotNull
+    private static KotlinAnalysisScheduler getScheduler(@NotNull KotlinEnvironment kotlinEnvironment) {
+        return ServiceManager.getService(kotlinEnvironment.getProject(), KotlinAnalysisScheduler.class);
     }
 }
\ No newline at end of file
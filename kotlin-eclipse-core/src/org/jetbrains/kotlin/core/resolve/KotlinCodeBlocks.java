@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.psi.JetNamedFunction;
+import org.jetbrains.kotlin.psi.JetProperty;
+import org.jetbrains.kotlin.psi.JetPropertyAccessor;
+
+import com.intellij.psi.PsiComment;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiRecursiveElementVisitor;
+import com.intellij.psi.PsiWhiteSpace;
+import com.intellij.psi.util.PsiTreeUtil;
+
+/**
+ * Code blocks are bodies which cannot change declarations visible from other code: block bodies of functions, 
+ * expression bodies of functions with declared return type, initializers and accessors of properties with declared type.
+ * Changes inside code blocks need re-analysis of the containing file only.
+ */
+public class KotlinCodeBlocks {
+    
+    private static final int CODE_BLOCK_MARKER = 0x7b7d;
+    
+    public static boolean isInCodeBlock(@Nullable PsiElement element) {
+        PsiElement current = element;
+        while (current != null && !(current instanceof JetFile)) {
+            PsiElement parent = current.getParent();
+            if (parent != null && isCodeBlock(current, parent)) {
+                return true;
+            }
+            
+            current = parent;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Computes hash of the file (or declaration) text outside of code blocks ignoring whitespaces and comments. 
+     * Equal hashes mean that declarations of the file did not change.
+     */
+    public static long computeOutOfBlockHash(@NotNull PsiElement root) {
+        final long[] hash = new long[] { 17 };
+        root.accept(new PsiRecursiveElementVisitor() {
+            @Override
+            public void visitElement(PsiElement element) {
+                PsiElement parent = element.getParent();
+                if (parent != null && isCodeBlock(element, parent)) {
+                    hash[0] = hash[0] * 31 + CODE_BLOCK_MARKER;
+                    return;
+                }
+                
+                if (element.getFirstChild() == null) {
+                    if (!(element instanceof PsiWhiteSpace) && !(element instanceof PsiComment)) {
+                        hash[0] = hash[0] * 31 + element.getText().hashCode();
+                    }
+                    return;
+                }
+                
+                super.visitElement(element);
+            }
+        });
+        
+        return hash[0];
+    }
+    
+    private static boolean isCodeBlock(@NotNull PsiElement element, @NotNull PsiElement parent) {
+        if (parent instanceof JetNamedFunction) {
+            JetNamedFunction function = (JetNamedFunction) parent;
+            return element == function.getBodyExpression() && (function.hasBlockBody() || function.getTypeReference() != null);
+        }
+        
+        if (parent instanceof JetPropertyAccessor) {
+            JetPropertyAccessor accessor = (JetPropertyAccessor) parent;
+            JetProperty property = PsiTreeUtil.getParentOfType(accessor, JetProperty.class);
+            return element == accessor.getBodyExpression() && property != null && property.getTypeReference() != null;
+        }
+        
+        if (parent instanceof JetProperty) {
+            JetProperty property = (JetProperty) parent;
+            boolean isInitializer = element == property.getInitializer() || element == property.getDelegate();
+            return isInitializer && property.getTypeReference() != null;
+        }
+        
+        return false;
+    }
+}
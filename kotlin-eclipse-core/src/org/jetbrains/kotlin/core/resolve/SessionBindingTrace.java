@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.resolve.BindingContext;
+import org.jetbrains.kotlin.resolve.BindingTrace;
+import org.jetbrains.kotlin.resolve.DelegatingBindingTrace;
+import org.jetbrains.kotlin.util.slicedMap.ReadOnlySlice;
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+
+/**
+ * Trace of a long living analysis session. Each analysis writes to its own layer on top of the data committed 
+ * by previous analyses, diagnostics which were already reported to the layer are ignored.
+ * Writes are never canceled: lazy values of the session remember exceptions thrown during their computation, 
+ * so analyses are canceled only between files.
+ * Threads resolving bodies in parallel write to their own worker layers.
+ */
+class SessionBindingTrace implements BindingTrace {
+    
+    private volatile DelegatingBindingTrace currentLayer = new DelegatingBindingTrace(BindingContext.EMPTY, "Empty layer");
+    private final Set<DiagnosticKey> reportedDiagnostics = Collections.newSetFromMap(new ConcurrentHashMap<DiagnosticKey, Boolean>());
+    private final ThreadLocal<DelegatingBindingTrace> workerLayer = new ThreadLocal<>();
+    
+    void startLayer(@NotNull DelegatingBindingTrace layer, @NotNull List<Diagnostic> inheritedDiagnostics) {
+        reportedDiagnostics.clear();
+        currentLayer = layer;
+        
+        for (Diagnostic diagnostic : inheritedDiagnostics) {
+            report(diagnostic);
+        }
+    }
+    
+    /**
+     * Writes of the current thread go to the given layer instead of the current one until the worker layer is finished
+     */
+    void startWorkerLayer(@NotNull DelegatingBindingTrace layer) {
+        workerLayer.set(layer);
+    }
+    
+    void finishWorkerLayer() {
+        workerLayer.remove();
+    }
+    
+    @NotNull
+    private DelegatingBindingTrace getLayer() {
+        DelegatingBindingTrace layer = workerLayer.get();
+        return layer != null ? layer : currentLayer;
+    }
+    
+    @Override
+    @NotNull
+    public BindingContext getBindingContext() {
+        return getLayer().getBindingContext();
+    }
+    
+    @Override
+    public <K, V> void record(WritableSlice<K, V> slice, K key, V value) {
+        getLayer().record(slice, key, value);
+    }
+    
+    @Override
+    public <K> void record(WritableSlice<K, Boolean> slice, K key) {
+        getLayer().record(slice, key);
+    }
+    
+    @Override
+    @Nullable
+    public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        return getLayer().get(slice, key);
+    }
+    
+    @Override
+    @NotNull
+    public <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
+        return getLayer().getKeys(slice);
+    }
+    
+    @Override
+    public void report(@NotNull Diagnostic diagnostic) {
+        if (reportedDiagnostics.add(new DiagnosticKey(diagnostic))) {
+            getLayer().report(diagnostic);
+        }
+    }
+    
+    static class DiagnosticKey {
+        private final Object factory;
+        private final PsiElement element;
+        private final List<TextRange> textRanges;
+        
+        DiagnosticKey(@NotNull Diagnostic diagnostic) {
+            this.factory = diagnostic.getFactory();
+            this.element = diagnostic.getPsiElement();
+            this.textRanges = diagnostic.getTextRanges();
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DiagnosticKey)) {
+                return false;
+            }
+            
+            DiagnosticKey other = (DiagnosticKey) obj;
+            return factory == other.factory && element == other.element && textRanges.equals(other.textRanges);
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(factory) + System.identityHashCode(element);
+        }
+    }
+}
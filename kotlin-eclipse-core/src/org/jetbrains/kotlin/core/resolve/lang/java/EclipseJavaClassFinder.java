@@ -21,34 +21,18 @@ import java.util.Arrays;
 import javax.inject.Inject;
 
 import org.eclipse.core.resources.IFolder;
-import org.eclipse.jdt.core.Flags;
-import org.eclipse.jdt.core.IField;
-import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaProject;
-import org.eclipse.jdt.core.IMember;
 import org.eclipse.jdt.core.IPackageFragment;
 import org.eclipse.jdt.core.IPackageFragmentRoot;
-import org.eclipse.jdt.core.ISourceReference;
 import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.JavaModelException;
-import org.eclipse.jdt.core.WorkingCopyOwner;
-import org.eclipse.jdt.core.dom.AST;
-import org.eclipse.jdt.core.dom.ASTNode;
-import org.eclipse.jdt.core.dom.ASTParser;
-import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
-import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
-import org.eclipse.jdt.core.dom.ClassInstanceCreation;
-import org.eclipse.jdt.core.dom.CompilationUnit;
-import org.eclipse.jdt.core.dom.EnumConstantDeclaration;
-import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
-import org.eclipse.jdt.core.dom.NodeFinder;
-import org.eclipse.jdt.internal.core.JavaProject;
-import org.eclipse.jdt.internal.core.NameLookup;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.core.model.KotlinJavaManager;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.Phase;
 import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaClass;
 import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaPackage;
 import org.jetbrains.kotlin.load.java.JavaClassFinder;
@@ -75,31 +59,40 @@ public class EclipseJavaClassFinder implements JavaClassFinder {
     @Override
     @Nullable
     public JavaPackage findPackage(@NotNull FqName fqName) {
-        IPackageFragment[] packageFragments = findPackageFragments(javaProject, fqName.asString(), false, false);
-        if (packageFragments != null && packageFragments.length > 0) {
-            return new EclipseJavaPackage(Arrays.asList(packageFragments));
+        long start = System.nanoTime();
+        try {
+            IPackageFragment[] packageFragments = findPackageFragments(javaProject, fqName.asString(), false, false);
+            if (packageFragments != null && packageFragments.length > 0) {
+                return new EclipseJavaPackage(Arrays.asList(packageFragments));
+            }
+            
+            return null;
+        } finally {
+            KotlinPerformanceStatistics.INSTANCE.record(Phase.JAVA_CLASS_LOOKUP, start);
         }
-
-        return null;
     }
     
     @Override
     @Nullable
     public JavaClass findClass(@NotNull ClassId classId) {
-        ITypeBinding typeBinding = findType(classId.asSingleFqName(), javaProject);
-        if (typeBinding != null) {
-            return new EclipseJavaClass(typeBinding);
+        long start = System.nanoTime();
+        try {
+            ITypeBinding typeBinding = findType(classId.asSingleFqName(), javaProject);
+            if (typeBinding != null) {
+                return new EclipseJavaClass(typeBinding);
+            }
+            
+            return null;
+        } finally {
+            KotlinPerformanceStatistics.INSTANCE.record(Phase.JAVA_CLASS_LOOKUP, start);
         }
-        
-        return null;
     }
     
     @Nullable
     public static IPackageFragment[] findPackageFragments(IJavaProject javaProject, String name, 
             boolean partialMatch, boolean patternMatch) {
         try {
-            NameLookup nameLookup = ((JavaProject) javaProject).newNameLookup((WorkingCopyOwner) null);
-            return nameLookup.findPackageFragments(name, partialMatch, patternMatch);
+            return EclipseJavaLookupCache.getInstance(javaProject).findPackageFragments(name, partialMatch, patternMatch);
         } catch (JavaModelException e) {
             KotlinLogger.logAndThrow(e);
         }
@@ -111,7 +104,7 @@ public class EclipseJavaClassFinder implements JavaClassFinder {
     public static ITypeBinding findType(@NotNull FqName fqName, @NotNull IJavaProject javaProject) {
         IType eclipseType = null;
         try {
-            eclipseType = javaProject.findType(fqName.asString());
+            eclipseType = EclipseJavaLookupCache.getInstance(javaProject).findType(fqName.asString());
         } catch (JavaModelException e) {
             KotlinLogger.logAndThrow(e);
         }
@@ -129,59 +122,6 @@ public class EclipseJavaClassFinder implements JavaClassFinder {
     }
     
     public static ITypeBinding createTypeBinding(IType type) {
-        ASTParser parser = ASTParser.newParser(AST.JLS8);
-        parser.setCompilerOptions(type.getJavaProject().getOptions(true));
-        parser.setIgnoreMethodBodies(true);
-        
-        if (type.getCompilationUnit() != null) {
-            parser.setSource(type.getCompilationUnit());
-        } else { // class file with no source
-            parser.setProject(type.getJavaProject());
-            IBinding[] bindings = parser.createBindings(new IJavaElement[] { type }, null);
-            if (bindings.length == 1 && bindings[0] instanceof ITypeBinding) {
-                return (ITypeBinding) bindings[0];
-            }
-            
-            return null;
-        }
-        
-        parser.setResolveBindings(true);
-        CompilationUnit root = (CompilationUnit) parser.createAST(null);
-        return getTypeBinding(root, type);
-    }
-    
-    private static ASTNode getParent(ASTNode node, Class<? extends ASTNode> parentClass) {
-        do {
-            node = node.getParent();
-        } while (node != null && !parentClass.isInstance(node));
-        return node;
-    }
-    
-    private static ITypeBinding getTypeBinding(CompilationUnit root, IType type) {
-        try {
-            if (type.isAnonymous()) {
-                final IJavaElement parent = type.getParent();
-                if (parent instanceof IField && Flags.isEnum(((IMember) parent).getFlags())) {
-                    final EnumConstantDeclaration constant = (EnumConstantDeclaration) NodeFinder.perform(root,
-                            ((ISourceReference) parent).getSourceRange());
-                    if (constant != null) {
-                        final AnonymousClassDeclaration declaration = constant.getAnonymousClassDeclaration();
-                        if (declaration != null) return declaration.resolveBinding();
-                    }
-                } else {
-                    final ClassInstanceCreation creation = (ClassInstanceCreation) getParent(
-                            NodeFinder.perform(root, type.getNameRange()), ClassInstanceCreation.class);
-                    if (creation != null) return creation.resolveTypeBinding();
-                }
-            } else {
-                final AbstractTypeDeclaration declaration = 
-                        (AbstractTypeDeclaration) getParent(NodeFinder.perform(root, type.getNameRange()), AbstractTypeDeclaration.class);
-                if (declaration != null) return declaration.resolveBinding();
-            }
-        } catch (JavaModelException e) {
-            KotlinLogger.logAndThrow(e);
-        }
-        
-        return null;
+        return EclipseTypeBindingProvider.getInstance(type.getJavaProject()).getTypeBinding(type);
     }
-}
+}
\ No newline at end of file
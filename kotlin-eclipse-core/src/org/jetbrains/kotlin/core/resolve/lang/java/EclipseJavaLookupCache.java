@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.java;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.WorkingCopyOwner;
+import org.eclipse.jdt.internal.core.JavaProject;
+import org.eclipse.jdt.internal.core.NameLookup;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.Phase;
+
+import com.google.common.base.Optional;
+
+/**
+ * Caches results of Java type and package lookups by name for a project, including lookups which found nothing.
+ * Cached results are valid for the current state of the Java model and are dropped by {@link EclipseJavaModelListener}.
+ */
+public class EclipseJavaLookupCache {
+    
+    private static final IPackageFragment[] NO_PACKAGE_FRAGMENTS = new IPackageFragment[0];
+    
+    private static final ConcurrentMap<IJavaProject, EclipseJavaLookupCache> caches = new ConcurrentHashMap<>();
+    
+    private final IJavaProject javaProject;
+    private final ConcurrentMap<String, Optional<IType>> types = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, IPackageFragment[]> packageFragments = new ConcurrentHashMap<>();
+    
+    private NameLookup nameLookup = null;
+    
+    private EclipseJavaLookupCache(@NotNull IJavaProject javaProject) {
+        this.javaProject = javaProject;
+    }
+    
+    @NotNull
+    public static EclipseJavaLookupCache getInstance(@NotNull IJavaProject javaProject) {
+        EclipseJavaLookupCache cache = caches.get(javaProject);
+        if (cache == null) {
+            EclipseJavaLookupCache newCache = new EclipseJavaLookupCache(javaProject);
+            cache = caches.putIfAbsent(javaProject, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        
+        return cache;
+    }
+    
+    public static void invalidateAll() {
+        caches.clear();
+    }
+    
+    @Nullable
+    public IType findType(@NotNull String fqName) throws JavaModelException {
+        Optional<IType> cached = types.get(fqName);
+        if (cached != null) {
+            KotlinPerformanceStatistics.INSTANCE.recordCacheHit(Phase.JAVA_CLASS_LOOKUP);
+            return cached.orNull();
+        }
+        
+        KotlinPerformanceStatistics.INSTANCE.recordCacheMiss(Phase.JAVA_CLASS_LOOKUP);
+        IType type = javaProject.findType(fqName);
+        types.putIfAbsent(fqName, Optional.fromNullable(type));
+        
+        return type;
+    }
+    
+    /**
+     * Returns an empty array if there are no matching package fragments
+     */
+    @NotNull
+    public IPackageFragment[] findPackageFragments(@NotNull String name, boolean partialMatch, boolean patternMatch) 
+            throws JavaModelException {
+        String key = name + "/" + partialMatch + "/" + patternMatch;
+        IPackageFragment[] cached = packageFragments.get(key);
+        if (cached != null) {
+            KotlinPerformanceStatistics.INSTANCE.recordCacheHit(Phase.JAVA_CLASS_LOOKUP);
+            return cached;
+        }
+        
+        KotlinPerformanceStatistics.INSTANCE.recordCacheMiss(Phase.JAVA_CLASS_LOOKUP);
+        IPackageFragment[] fragments;
+        synchronized (this) {
+            fragments = getNameLookup().findPackageFragments(name, partialMatch, patternMatch);
+        }
+        if (fragments == null) {
+            fragments = NO_PACKAGE_FRAGMENTS;
+        }
+        packageFragments.putIfAbsent(key, fragments);
+        
+        return fragments;
+    }
+    
+    @NotNull
+    private NameLookup getNameLookup() throws JavaModelException {
+        if (nameLookup == null) {
+            nameLookup = ((JavaProject) javaProject).newNameLookup((WorkingCopyOwner) null);
+        }
+        
+        return nameLookup;
+    }
+}
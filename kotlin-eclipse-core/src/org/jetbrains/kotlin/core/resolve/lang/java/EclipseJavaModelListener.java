@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.java;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.core.model.KotlinJavaManager;
+
+/**
+ * Invalidates caches of Java structure used by Kotlin analysis when Java declarations or the classpath are changed 
+ * and counts such changes, so long living analyses can notice that Java descriptors they have resolved are stale. 
+ * Other deltas, e.g. changes of light classes or of working copy state, keep the caches.
+ */
+public class EclipseJavaModelListener implements IElementChangedListener {
+    
+    private static final AtomicLong modificationCount = new AtomicLong();
+    
+    private static final int STRUCTURE_CHANGE_FLAGS = IJavaElementDelta.F_CONTENT | IJavaElementDelta.F_CHILDREN | 
+            IJavaElementDelta.F_MODIFIERS | IJavaElementDelta.F_SUPER_TYPES;
+    
+    private static final int CONTAINER_CHANGE_FLAGS = IJavaElementDelta.F_OPENED | IJavaElementDelta.F_CLOSED | 
+            IJavaElementDelta.F_ADDED_TO_CLASSPATH | IJavaElementDelta.F_REMOVED_FROM_CLASSPATH | 
+            IJavaElementDelta.F_REORDER | IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED | 
+            IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED;
+    
+    @Override
+    public void elementChanged(ElementChangedEvent event) {
+        if (changesDeclarations(event.getDelta())) {
+            modificationCount.incrementAndGet();
+            EclipseJavaLookupCache.invalidateAll();
+            EclipseTypeBindingProvider.invalidateAll();
+        }
+    }
+    
+    /**
+     * Incremented on every change of Java declarations in the workspace, light classes of Kotlin files excluded
+     */
+    public static long getModificationCount() {
+        return modificationCount.get();
+    }
+    
+    private static boolean changesDeclarations(@NotNull IJavaElementDelta delta) {
+        IJavaElement element = delta.getElement();
+        if (element.getElementType() == IJavaElement.PACKAGE_FRAGMENT_ROOT && isKotlinBinFolder(element)) {
+            // Light classes are updated from Kotlin files, which are tracked by analyses themselves
+            return false;
+        }
+        
+        if (delta.getKind() != IJavaElementDelta.CHANGED) {
+            return true;
+        }
+        
+        switch (element.getElementType()) {
+            case IJavaElement.COMPILATION_UNIT:
+            case IJavaElement.CLASS_FILE:
+            case IJavaElement.TYPE:
+                return (delta.getFlags() & STRUCTURE_CHANGE_FLAGS) != 0;
+            default:
+                if ((delta.getFlags() & CONTAINER_CHANGE_FLAGS) != 0) {
+                    return true;
+                }
+                
+                for (IJavaElementDelta child : delta.getAffectedChildren()) {
+                    if (changesDeclarations(child)) {
+                        return true;
+                    }
+                }
+                
+                return false;
+        }
+    }
+    
+    private static boolean isKotlinBinFolder(@NotNull IJavaElement root) {
+        return KotlinJavaManager.KOTLIN_BIN_FOLDER.equals(root.getPath().removeFirstSegments(1));
+    }
+}
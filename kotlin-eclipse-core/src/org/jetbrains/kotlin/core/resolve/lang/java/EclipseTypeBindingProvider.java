@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.java;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jdt.core.Flags;
+import org.eclipse.jdt.core.IClassFile;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IField;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.ISourceReference;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.ClassInstanceCreation;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.EnumConstantDeclaration;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.NodeFinder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+
+/**
+ * Creates type bindings of Java types of a project in batches: all requested compilation units are parsed together 
+ * and all requested class files are resolved together, each batch in one shared binding environment. A single type 
+ * is resolved together with the other types of its package, which are likely to be requested by the same analysis.
+ * Bindings of the last {@link #MAX_CACHED_BATCHES} batches are cached until the Java model of the workspace changes 
+ * (see {@link EclipseJavaModelListener}), older batches are dropped with their environments.
+ */
+public class EclipseTypeBindingProvider {
+    
+    private static final int MAX_CACHED_BATCHES = 32;
+    private static final int MAX_PACKAGE_BATCH_SIZE = 64;
+    
+    private static final ConcurrentMap<IJavaProject, EclipseTypeBindingProvider> providers = new ConcurrentHashMap<>();
+    
+    private final IJavaProject javaProject;
+    
+    // Guarded by this
+    private final Map<IType, Batch> batchesByType = new HashMap<>();
+    private final LinkedHashMap<Batch, Batch> cachedBatches = new LinkedHashMap<Batch, Batch>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Batch, Batch> eldest) {
+            if (size() <= MAX_CACHED_BATCHES) {
+                return false;
+            }
+            
+            Batch batch = eldest.getKey();
+            for (IType type : batch.bindings.keySet()) {
+                if (batchesByType.get(type) == batch) {
+                    batchesByType.remove(type);
+                }
+            }
+            
+            return true;
+        }
+    };
+    
+    private EclipseTypeBindingProvider(@NotNull IJavaProject javaProject) {
+        this.javaProject = javaProject;
+    }
+    
+    @NotNull
+    public static EclipseTypeBindingProvider getInstance(@NotNull IJavaProject javaProject) {
+        EclipseTypeBindingProvider provider = providers.get(javaProject);
+        if (provider == null) {
+            EclipseTypeBindingProvider newProvider = new EclipseTypeBindingProvider(javaProject);
+            provider = providers.putIfAbsent(javaProject, newProvider);
+            if (provider == null) {
+                provider = newProvider;
+            }
+        }
+        
+        return provider;
+    }
+    
+    /**
+     * Drops bindings of all projects, they can refer to types which were changed
+     */
+    public static void invalidateAll() {
+        providers.clear();
+    }
+    
+    @Nullable
+    public ITypeBinding getTypeBinding(@NotNull IType type) {
+        ITypeBinding cached = getCachedBinding(type);
+        if (cached != null) {
+            return cached;
+        }
+        
+        return getTypeBindings(collectPackageBatch(type)).get(type);
+    }
+    
+    /**
+     * Returns bindings of the given types, types whose bindings cannot be created are absent in the result
+     */
+    @NotNull
+    public Map<IType, ITypeBinding> getTypeBindings(@NotNull Collection<IType> types) {
+        Map<IType, ITypeBinding> result = new LinkedHashMap<>();
+        Map<ICompilationUnit, List<IType>> sourceTypes = new LinkedHashMap<>();
+        List<IType> binaryTypes = new ArrayList<>();
+        
+        for (IType type : types) {
+            ITypeBinding cached = getCachedBinding(type);
+            if (cached != null) {
+                result.put(type, cached);
+                continue;
+            }
+            
+            ICompilationUnit compilationUnit = type.getCompilationUnit();
+            if (compilationUnit != null) {
+                List<IType> unitTypes = sourceTypes.get(compilationUnit);
+                if (unitTypes == null) {
+                    unitTypes = new ArrayList<>();
+                    sourceTypes.put(compilationUnit, unitTypes);
+                }
+                unitTypes.add(type);
+            } else { // class file with no source
+                binaryTypes.add(type);
+            }
+        }
+        
+        if (!sourceTypes.isEmpty()) {
+            result.putAll(cache(createSourceBindings(sourceTypes)));
+        }
+        if (!binaryTypes.isEmpty()) {
+            result.putAll(cache(createBinaryBindings(binaryTypes)));
+        }
+        
+        return result;
+    }
+    
+    @Nullable
+    private synchronized ITypeBinding getCachedBinding(@NotNull IType type) {
+        Batch batch = batchesByType.get(type);
+        if (batch == null) {
+            return null;
+        }
+        
+        cachedBatches.get(batch); // Mark batch as recently used
+        return batch.bindings.get(type);
+    }
+    
+    @NotNull
+    private synchronized Map<IType, ITypeBinding> cache(@NotNull Map<IType, ITypeBinding> bindings) {
+        if (!bindings.isEmpty()) {
+            Batch batch = new Batch(bindings);
+            for (IType type : bindings.keySet()) {
+                batchesByType.put(type, batch);
+            }
+            cachedBatches.put(batch, batch);
+        }
+        
+        return bindings;
+    }
+    
+    /**
+     * Collects the type with not yet resolved types of the same kind (sources or class files) from its package
+     */
+    @NotNull
+    private List<IType> collectPackageBatch(@NotNull IType type) {
+        List<IType> batch = new ArrayList<>();
+        batch.add(type);
+        
+        IPackageFragment packageFragment = type.getPackageFragment();
+        try {
+            if (type.getCompilationUnit() != null) {
+                for (ICompilationUnit compilationUnit : packageFragment.getCompilationUnits()) {
+                    for (IType unitType : compilationUnit.getAllTypes()) {
+                        if (batch.size() >= MAX_PACKAGE_BATCH_SIZE) {
+                            return batch;
+                        }
+                        addToBatch(batch, unitType);
+                    }
+                }
+            } else {
+                for (IClassFile classFile : packageFragment.getClassFiles()) {
+                    if (batch.size() >= MAX_PACKAGE_BATCH_SIZE) {
+                        return batch;
+                    }
+                    if (!classFile.getElementName().contains("$")) {
+                        addToBatch(batch, classFile.getType());
+                    }
+                }
+            }
+        } catch (JavaModelException e) {
+            KotlinLogger.logAndThrow(e);
+        }
+        
+        return batch;
+    }
+    
+    private void addToBatch(@NotNull List<IType> batch, @NotNull IType type) {
+        if (!type.equals(batch.get(0)) && getCachedBinding(type) == null) {
+            batch.add(type);
+        }
+    }
+    
+    @NotNull
+    private Map<IType, ITypeBinding> createSourceBindings(@NotNull final Map<ICompilationUnit, List<IType>> sourceTypes) {
+        final Map<IType, ITypeBinding> bindings = new HashMap<>();
+        
+        ASTParser parser = createParser();
+        parser.setResolveBindings(true);
+        
+        Collection<ICompilationUnit> units = sourceTypes.keySet();
+        parser.createASTs(units.toArray(new ICompilationUnit[units.size()]), new String[0], new ASTRequestor() {
+            @Override
+            public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+                for (IType type : sourceTypes.get(source)) {
+                    ITypeBinding binding = getTypeBinding(ast, type);
+                    if (binding != null) {
+                        bindings.put(type, binding);
+                    }
+                }
+            }
+        }, null);
+        
+        return bindings;
+    }
+    
+    @NotNull
+    private Map<IType, ITypeBinding> createBinaryBindings(@NotNull List<IType> binaryTypes) {
+        Map<IType, ITypeBinding> bindings = new HashMap<>();
+        
+        ASTParser parser = createParser();
+        IBinding[] createdBindings = parser.createBindings(binaryTypes.toArray(new IJavaElement[binaryTypes.size()]), null);
+        for (int i = 0; i < createdBindings.length; i++) {
+            if (createdBindings[i] instanceof ITypeBinding) {
+                bindings.put(binaryTypes.get(i), (ITypeBinding) createdBindings[i]);
+            }
+        }
+        
+        return bindings;
+    }
+    
+    @NotNull
+    private ASTParser createParser() {
+        ASTParser parser = ASTParser.newParser(AST.JLS8);
+        parser.setCompilerOptions(javaProject.getOptions(true));
+        parser.setIgnoreMethodBodies(true);
+        parser.setProject(javaProject);
+        return parser;
+    }
+    
+    private static ASTNode getParent(ASTNode node, Class<? extends ASTNode> parentClass) {
+        do {
+            node = node.getParent();
+        } while (node != null && !parentClass.isInstance(node));
+        return node;
+    }
+    
+    private static ITypeBinding getTypeBinding(CompilationUnit root, IType type) {
+        try {
+            if (type.isAnonymous()) {
+                final IJavaElement parent = type.getParent();
+                if (parent instanceof IField && Flags.isEnum(((IMember) parent).getFlags())) {
+                    final EnumConstantDeclaration constant = (EnumConstantDeclaration) NodeFinder.perform(root,
+                            ((ISourceReference) parent).getSourceRange());
+                    if (constant != null) {
+                        final AnonymousClassDeclaration declaration = constant.getAnonymousClassDeclaration();
+                        if (declaration != null) return declaration.resolveBinding();
+                    }
+                } else {
+                    final ClassInstanceCreation creation = (ClassInstanceCreation) getParent(
+                            NodeFinder.perform(root, type.getNameRange()), ClassInstanceCreation.class);
+                    if (creation != null) return creation.resolveTypeBinding();
+                }
+            } else {
+                final AbstractTypeDeclaration declaration = 
+                        (AbstractTypeDeclaration) getParent(NodeFinder.perform(root, type.getNameRange()), AbstractTypeDeclaration.class);
+                if (declaration != null) return declaration.resolveBinding();
+            }
+        } catch (JavaModelException e) {
+            KotlinLogger.logAndThrow(e);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Bindings created in one environment, they keep that environment reachable
+     */
+    private static class Batch {
+        final Map<IType, ITypeBinding> bindings;
+        
+        Batch(@NotNull Map<IType, ITypeBinding> bindings) {
+            this.bindings = bindings;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaClassFinder;
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseTypeBindingProvider;
 import org.jetbrains.kotlin.load.java.structure.JavaClass;
 import org.jetbrains.kotlin.load.java.structure.JavaElement;
 import org.jetbrains.kotlin.load.java.structure.JavaPackage;
@@ -98,32 +99,28 @@ public class EclipseJavaPackage implements JavaElement, JavaPackage {
     
     private List<JavaClass> getClassesInPackage(IPackageFragment javaPackage, Function1<? super Name, ? extends Boolean> nameFilter) {
         try {
-            List<JavaClass> javaClasses = Lists.newArrayList();
+            List<IType> types = Lists.newArrayList();
             for (IClassFile classFile : javaPackage.getClassFiles()) {
                 IType type = classFile.getType();
-                if (isOuterClass(classFile)) {
-                    String elementName = type.getElementName();
-                    if (Name.isValidIdentifier(elementName) && nameFilter.invoke(Name.identifier(elementName))) {
-                        ITypeBinding typeBinding = EclipseJavaClassFinder.createTypeBinding(type);
-                        if (typeBinding != null) {
-                            javaClasses.add(new EclipseJavaClass(typeBinding));
-                        }
-                    }
+                if (isOuterClass(classFile) && isAcceptedByFilter(type, nameFilter)) {
+                    types.add(type);
                 }
             }
             
             for (ICompilationUnit cu : javaPackage.getCompilationUnits()) {
                 for (IType javaClass : cu.getAllTypes()) {
-                    String elementName = javaClass.getElementName();
-                    if (Name.isValidIdentifier(elementName) && nameFilter.invoke(Name.identifier(elementName))) {
-                        ITypeBinding typeBinding = EclipseJavaClassFinder.createTypeBinding(javaClass);
-                        if (typeBinding != null) {
-                            javaClasses.add(new EclipseJavaClass(typeBinding));
-                        }
+                    if (isAcceptedByFilter(javaClass, nameFilter)) {
+                        types.add(javaClass);
                     }
                 }
             }
             
+            EclipseTypeBindingProvider bindingProvider = EclipseTypeBindingProvider.getInstance(javaPackage.getJavaProject());
+            List<JavaClass> javaClasses = Lists.newArrayList();
+            for (ITypeBinding typeBinding : bindingProvider.getTypeBindings(types).values()) {
+                javaClasses.add(new EclipseJavaClass(typeBinding));
+            }
+            
             return javaClasses;
         } catch (JavaModelException e) {
             KotlinLogger.logAndThrow(e);
@@ -131,6 +128,11 @@ public class EclipseJavaPackage implements JavaElement, JavaPackage {
         }
     }
 
+    private static boolean isAcceptedByFilter(IType type, Function1<? super Name, ? extends Boolean> nameFilter) {
+        String elementName = type.getElementName();
+        return Name.isValidIdentifier(elementName) && nameFilter.invoke(Name.identifier(elementName));
+    }
+    
     // TODO: Add correct resolve binding for all class files with $
     private boolean isOuterClass(IClassFile classFile) {
         return !classFile.getElementName().contains("$");
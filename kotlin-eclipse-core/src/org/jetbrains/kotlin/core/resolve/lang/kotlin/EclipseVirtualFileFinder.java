@@ -24,7 +24,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot;
 import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot.RootType;
-import org.jetbrains.kotlin.cli.jvm.compiler.JvmDependenciesIndex;
 import org.jetbrains.kotlin.load.java.structure.JavaClass;
 import org.jetbrains.kotlin.load.kotlin.JvmVirtualFileFinder;
 import org.jetbrains.kotlin.load.kotlin.JvmVirtualFileFinderFactory;
@@ -39,9 +38,16 @@ import com.intellij.psi.search.GlobalSearchScope;
 
 public class EclipseVirtualFileFinder extends VirtualFileKotlinClassFinder implements JvmVirtualFileFinderFactory {
     @NotNull
-    private final JvmDependenciesIndex index;
+    private volatile KotlinClasspathIndex index;
 
-    public EclipseVirtualFileFinder(@NotNull JvmDependenciesIndex index) {
+    public EclipseVirtualFileFinder(@NotNull KotlinClasspathIndex index) {
+        this.index = index;
+    }
+    
+    /**
+     * Replaces index after classpath change, finders created before keep the old one
+     */
+    public void setIndex(@NotNull KotlinClasspathIndex index) {
         this.index = index;
     }
 
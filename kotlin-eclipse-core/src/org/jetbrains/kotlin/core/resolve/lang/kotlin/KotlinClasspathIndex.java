@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.kotlin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import kotlin.jvm.functions.Function2;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot;
+import org.jetbrains.kotlin.name.ClassId;
+
+import com.google.common.collect.Maps;
+import com.intellij.openapi.vfs.VirtualFile;
+
+/**
+ * Classpath index of a project composed from shared jar indexes and source roots of the project. Roots which can 
+ * contain a package are computed once per index: jars are looked up only if they have the package, directory roots 
+ * are always looked up.
+ */
+public class KotlinClasspathIndex {
+    
+    private final List<JavaRoot> roots;
+    private final Map<VirtualFile, KotlinJarIndex> jarIndexes = Maps.newHashMap();
+    private final List<JavaRoot> directoryRoots = new ArrayList<>();
+    
+    // Package path -> roots in classpath order: jars which contain the package and all directory roots
+    private volatile Map<String, List<JavaRoot>> rootsByPackage = null;
+    
+    public KotlinClasspathIndex(@NotNull List<JavaRoot> roots, @NotNull Collection<KotlinJarIndex> jarIndexes) {
+        this.roots = new ArrayList<>(roots);
+        for (KotlinJarIndex jarIndex : jarIndexes) {
+            this.jarIndexes.put(jarIndex.getRoot().getFile(), jarIndex);
+        }
+        
+        for (JavaRoot root : this.roots) {
+            if (!this.jarIndexes.containsKey(root.getFile())) {
+                directoryRoots.add(root);
+            }
+        }
+    }
+    
+    /**
+     * Calls {@code findInPackage} for the package directory of the class in each accepted root in classpath order 
+     * and returns the first non-null result
+     */
+    @Nullable
+    public <T> T findClass(@NotNull ClassId classId, @NotNull Set<JavaRoot.RootType> acceptedRootTypes, 
+            @NotNull Function2<VirtualFile, JavaRoot.RootType, T> findInPackage) {
+        String packagePath = classId.getPackageFqName().asString().replace('.', '/');
+        for (JavaRoot root : getCandidateRoots(packagePath)) {
+            if (!acceptedRootTypes.contains(root.getType())) continue;
+            
+            VirtualFile packageDirectory = findPackageDirectory(root, packagePath);
+            if (packageDirectory == null || !packageDirectory.isDirectory()) continue;
+            
+            T result = findInPackage.invoke(packageDirectory, root.getType());
+            if (result != null) {
+                return result;
+            }
+        }
+        
+        return null;
+    }
+    
+    @NotNull
+    private List<JavaRoot> getCandidateRoots(@NotNull String packagePath) {
+        Map<String, List<JavaRoot>> packageRoots = rootsByPackage;
+        if (packageRoots == null) {
+            packageRoots = computeRootsByPackage();
+            rootsByPackage = packageRoots;
+        }
+        
+        List<JavaRoot> candidates = packageRoots.get(packagePath);
+        return candidates != null ? candidates : directoryRoots;
+    }
+    
+    @NotNull
+    private Map<String, List<JavaRoot>> computeRootsByPackage() {
+        Map<String, List<JavaRoot>> packageRoots = new HashMap<>();
+        List<JavaRoot> precedingDirectoryRoots = new ArrayList<>();
+        for (JavaRoot root : roots) {
+            KotlinJarIndex jarIndex = jarIndexes.get(root.getFile());
+            if (jarIndex != null) {
+                for (String packagePath : jarIndex.getPackagePaths()) {
+                    List<JavaRoot> rootsOfPackage = packageRoots.get(packagePath);
+                    if (rootsOfPackage == null) {
+                        rootsOfPackage = new ArrayList<>(precedingDirectoryRoots);
+                        packageRoots.put(packagePath, rootsOfPackage);
+                    }
+                    rootsOfPackage.add(root);
+                }
+            } else {
+                precedingDirectoryRoots.add(root);
+                for (List<JavaRoot> rootsOfPackage : packageRoots.values()) {
+                    rootsOfPackage.add(root);
+                }
+            }
+        }
+        
+        return packageRoots;
+    }
+    
+    @Nullable
+    private VirtualFile findPackageDirectory(@NotNull JavaRoot root, @NotNull String packagePath) {
+        KotlinJarIndex jarIndex = jarIndexes.get(root.getFile());
+        if (jarIndex != null) {
+            return jarIndex.findPackageDirectory(packagePath);
+        }
+        
+        return packagePath.isEmpty() ? root.getFile() : root.getFile().findFileByRelativePath(packagePath);
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.kotlin;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot;
+
+import com.intellij.openapi.vfs.VirtualFile;
+
+/**
+ * Packages of one jar, shared between all projects which have this jar on the classpath. 
+ * Instances are obtained from {@link KotlinJarIndexCache} and released when a project environment is disposed.
+ */
+public class KotlinJarIndex {
+    
+    // Rough retained size of one package entry together with its virtual file
+    private static final int ESTIMATED_BYTES_PER_PACKAGE = 200;
+    
+    private final File jarFile;
+    private final long timeStamp;
+    private final JavaRoot root;
+    
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    
+    private volatile Set<String> packageDirectories = null;
+    
+    KotlinJarIndex(@NotNull File jarFile, long timeStamp, @NotNull VirtualFile jarRoot) {
+        this.jarFile = jarFile;
+        this.timeStamp = timeStamp;
+        this.root = new JavaRoot(jarRoot, JavaRoot.RootType.BINARY);
+    }
+    
+    @NotNull
+    public File getJarFile() {
+        return jarFile;
+    }
+    
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+    
+    @NotNull
+    public JavaRoot getRoot() {
+        return root;
+    }
+    
+    public int getPackagesCount() {
+        return getPackageDirectories().size();
+    }
+    
+    @NotNull
+    Set<String> getPackagePaths() {
+        return Collections.unmodifiableSet(getPackageDirectories());
+    }
+    
+    public long getEstimatedSize() {
+        Set<String> directories = packageDirectories;
+        return directories != null ? (long) directories.size() * ESTIMATED_BYTES_PER_PACKAGE : 0;
+    }
+    
+    /**
+     * @param relativePath package path relative to the jar root, e.g. {@code kotlin/io}
+     */
+    @Nullable
+    public VirtualFile findPackageDirectory(@NotNull String relativePath) {
+        if (!getPackageDirectories().contains(relativePath)) {
+            return null;
+        }
+        
+        return relativePath.isEmpty() ? root.getFile() : root.getFile().findFileByRelativePath(relativePath);
+    }
+    
+    boolean retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count == 0) {
+                return false; // Already released by all projects
+            }
+            
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    boolean release() {
+        return refCount.decrementAndGet() == 0;
+    }
+    
+    @NotNull
+    private Set<String> getPackageDirectories() {
+        Set<String> directories = packageDirectories;
+        if (directories == null) {
+            directories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            collectPackageDirectories(root.getFile(), "", directories);
+            packageDirectories = directories;
+        }
+        
+        return directories;
+    }
+    
+    private static void collectPackageDirectories(@NotNull VirtualFile directory, @NotNull String path, 
+            @NotNull Set<String> directories) {
+        directories.add(path);
+        for (VirtualFile child : directory.getChildren()) {
+            if (child.isDirectory()) {
+                String childPath = path.isEmpty() ? child.getName() : path + "/" + child.getName();
+                collectPackageDirectories(child, childPath, directories);
+            }
+        }
+    }
+}
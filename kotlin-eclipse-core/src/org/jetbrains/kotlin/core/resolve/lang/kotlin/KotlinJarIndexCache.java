@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.kotlin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem;
+
+/**
+ * Workspace-wide cache of jar indexes keyed by jar path and modification time. Every project environment acquires 
+ * indexes of its jars and releases them on dispose, an index is dropped when no project uses it.
+ * <p>
+ * Jar file system caches its handlers by path only, so every version of a jar is opened by its own file system 
+ * which is dropped together with the index. Otherwise a rebuilt jar would be read from the stale handler.
+ */
+public class KotlinJarIndexCache {
+    
+    public static final KotlinJarIndexCache INSTANCE = new KotlinJarIndexCache();
+    
+    private final ConcurrentMap<String, KotlinJarIndex> jarIndexes = new ConcurrentHashMap<>();
+    
+    private KotlinJarIndexCache() {
+    }
+    
+    /**
+     * @return null if the jar cannot be opened
+     */
+    @Nullable
+    public KotlinJarIndex acquire(@NotNull File jarFile) {
+        long timeStamp = jarFile.lastModified();
+        String key = getKey(jarFile, timeStamp);
+        while (true) {
+            KotlinJarIndex jarIndex = jarIndexes.get(key);
+            if (jarIndex != null) {
+                if (jarIndex.retain()) {
+                    return jarIndex;
+                }
+                
+                // Being released concurrently
+                jarIndexes.remove(key, jarIndex);
+                continue;
+            }
+            
+            VirtualFile jarRoot = new CoreJarFileSystem().findFileByPath(jarFile.getAbsolutePath() + "!/");
+            if (jarRoot == null) {
+                return null;
+            }
+            
+            KotlinJarIndex newJarIndex = new KotlinJarIndex(jarFile, timeStamp, jarRoot);
+            if (jarIndexes.putIfAbsent(key, newJarIndex) == null) {
+                return newJarIndex;
+            }
+        }
+    }
+    
+    public void release(@NotNull KotlinJarIndex jarIndex) {
+        if (jarIndex.release()) {
+            jarIndexes.remove(getKey(jarIndex.getJarFile(), jarIndex.getTimeStamp()), jarIndex);
+        }
+    }
+    
+    @NotNull
+    public List<KotlinJarIndex> getJarIndexes() {
+        return new ArrayList<>(jarIndexes.values());
+    }
+    
+    @NotNull
+    private static String getKey(@NotNull File jarFile, long timeStamp) {
+        return jarFile.getAbsolutePath() + "@" + timeStamp;
+    }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.utils;
+
+import java.util.Collection;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns;
+import org.jetbrains.kotlin.descriptors.CallableDescriptor;
+import org.jetbrains.kotlin.descriptors.ClassDescriptor;
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor;
+
+/**
+ * Deserializes the built-ins module, which is shared by modules of all analyses in the workspace, in background. 
+ * Built-ins are otherwise deserialized lazily by the first analyses which need them, e.g. on the first reconcile.
+ */
+public class KotlinBuiltInsLoadingJob extends Job {
+    
+    public KotlinBuiltInsLoadingJob() {
+        super("Loading Kotlin built-ins");
+        setPriority(Job.DECORATE);
+        setSystem(true);
+    }
+    
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        Collection<DeclarationDescriptor> descriptors = KotlinBuiltIns.getInstance().getBuiltInsPackageScope().getAllDescriptors();
+        monitor.beginTask(getName(), descriptors.size());
+        try {
+            for (DeclarationDescriptor descriptor : descriptors) {
+                if (monitor.isCanceled()) {
+                    return Status.CANCEL_STATUS;
+                }
+                
+                load(descriptor);
+                monitor.worked(1);
+            }
+        } finally {
+            monitor.done();
+        }
+        
+        return Status.OK_STATUS;
+    }
+    
+    private static void load(@NotNull DeclarationDescriptor descriptor) {
+        if (descriptor instanceof ClassDescriptor) {
+            ClassDescriptor classDescriptor = (ClassDescriptor) descriptor;
+            classDescriptor.getTypeConstructor().getSupertypes();
+            for (DeclarationDescriptor member : classDescriptor.getDefaultType().getMemberScope().getAllDescriptors()) {
+                load(member);
+            }
+        } else if (descriptor instanceof CallableDescriptor) {
+            ((CallableDescriptor) descriptor).getReturnType();
+        }
+    }
+}
@@ -18,17 +18,26 @@ package org.jetbrains.kotlin.core.utils;
 
 import static org.eclipse.core.resources.ResourcesPlugin.getWorkspace;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.builder.KotlinSourceRoots;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
+import org.jetbrains.kotlin.idea.JetFileType;
+
+import com.google.common.collect.Lists;
 
 public class KotlinFilesCollector {
     
@@ -38,29 +47,101 @@ public class KotlinFilesCollector {
         } catch (CoreException e) {
             KotlinLogger.logError(e);
         }
+        
+        new KotlinFilesParsingJob().schedule();
     }
     
     private void addFilesToParse() throws CoreException {
+        List<ScanProjectAction> actions = Lists.newArrayList();
         for (IProject project : getWorkspace().getRoot().getProjects()) {
-            IJavaProject javaProject = JavaCore.create(project);
-            for (IResource resource : project.members(false)) {
-                scanForFiles(resource, javaProject);
+            actions.add(new ScanProjectAction(project));
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (ScanProjectAction action : actions) {
+                pool.execute(action);
+            }
+            for (ScanProjectAction action : actions) {
+                action.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        
+        for (ScanProjectAction action : actions) {
+            if (action.exception != null) {
+                throw action.exception;
             }
         }
     }
     
-    private void scanForFiles(@NotNull IResource parentResource, @NotNull IJavaProject javaProject) throws CoreException {
-        if (KotlinPsiManager.INSTANCE.isKotlinSourceFile(parentResource, javaProject)) {
-            KotlinPsiManager.INSTANCE.updateProjectPsiSources((IFile) parentResource, IResourceDelta.ADDED);
-            return; 
+    private static class ScanProjectAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final IProject project;
+        private CoreException exception = null;
+        
+        ScanProjectAction(@NotNull IProject project) {
+            this.project = project;
         }
-        if (parentResource.getType() != IResource.FOLDER) {
-            return;
+        
+        @Override
+        protected void compute() {
+            try {
+                IJavaProject javaProject = JavaCore.create(project);
+                if (!project.isAccessible() || !javaProject.exists()) {
+                    return;
+                }
+                
+                KotlinSourceRoots sourceRoots = KotlinSourceRoots.getSourceRoots(javaProject);
+                List<ScanFolderAction> folderActions = Lists.newArrayList();
+                for (IPath rootPath : sourceRoots.getTopLevelRoots()) {
+                    IResource resource = getWorkspace().getRoot().findMember(rootPath);
+                    if (resource instanceof IContainer) {
+                        folderActions.add(new ScanFolderAction((IContainer) resource, sourceRoots));
+                    }
+                }
+                
+                invokeAll(folderActions);
+            } catch (CoreException e) {
+                exception = e;
+            }
         }
-        IResource[] resources = ((IFolder) parentResource).members();
-        for (IResource resource : resources) {
-            scanForFiles(resource, javaProject);
+    }
+    
+    private static class ScanFolderAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final IContainer folder;
+        private final KotlinSourceRoots sourceRoots;
+        
+        ScanFolderAction(@NotNull IContainer folder, @NotNull KotlinSourceRoots sourceRoots) {
+            this.folder = folder;
+            this.sourceRoots = sourceRoots;
+        }
+        
+        @Override
+        protected void compute() {
+            try {
+                List<ScanFolderAction> subFolderActions = Lists.newArrayList();
+                for (IResource resource : folder.members()) {
+                    if (resource.getType() == IResource.FOLDER) {
+                        subFolderActions.add(new ScanFolderAction((IContainer) resource, sourceRoots));
+                    } else if (isKotlinFile(resource) && sourceRoots.contains(resource)) {
+                        KotlinPsiManager.INSTANCE.updateProjectPsiSources((IFile) resource, IResourceDelta.ADDED);
+                    }
+                }
+                
+                invokeAll(subFolderActions);
+            } catch (CoreException e) {
+                KotlinLogger.logError(e);
+            }
+        }
+        
+        private static boolean isKotlinFile(@NotNull IResource resource) {
+            return resource instanceof IFile && 
+                    JetFileType.INSTANCE.getDefaultExtension().equals(resource.getFileExtension());
         }
     }
-
 }
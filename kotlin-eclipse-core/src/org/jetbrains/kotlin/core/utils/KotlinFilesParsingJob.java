@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.utils;
+
+import static org.eclipse.core.resources.ResourcesPlugin.getWorkspace;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.index.KotlinDeclarationIndex;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Parses registered Kotlin files in background, so the first editor or build finds psi in the cache. Files with 
+ * an up-to-date stub in {@link KotlinDeclarationIndex} are skipped, they are parsed on the first request.
+ */
+public class KotlinFilesParsingJob extends Job {
+    
+    public static final Object FAMILY = new Object();
+    
+    public KotlinFilesParsingJob() {
+        super("Parsing Kotlin files");
+        setPriority(Job.DECORATE);
+    }
+    
+    @Override
+    public boolean belongsTo(Object family) {
+        return family == FAMILY;
+    }
+    
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        List<IFile> files = Lists.newArrayList();
+        for (IProject project : getWorkspace().getRoot().getProjects()) {
+            files.addAll(KotlinPsiManager.INSTANCE.getFilesByProject(project));
+        }
+        
+        monitor.beginTask(getName(), files.size());
+        
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            List<ForkJoinTask<?>> tasks = Lists.newArrayList();
+            for (IFile file : files) {
+                tasks.add(pool.submit(new ParseFileTask(file)));
+            }
+            
+            for (ForkJoinTask<?> task : tasks) {
+                if (monitor.isCanceled()) {
+                    return Status.CANCEL_STATUS;
+                }
+                
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Status.CANCEL_STATUS;
+                } catch (ExecutionException e) {
+                    KotlinLogger.logError(e.getCause());
+                }
+                
+                monitor.worked(1);
+            }
+        } finally {
+            pool.shutdownNow();
+            monitor.done();
+        }
+        
+        return Status.OK_STATUS;
+    }
+    
+    private static class ParseFileTask implements Runnable {
+        private final IFile file;
+        
+        ParseFileTask(@NotNull IFile file) {
+            this.file = file;
+        }
+        
+        @Override
+        public void run() {
+            if (KotlinPsiManager.INSTANCE.exists(file) && KotlinDeclarationIndex.INSTANCE.getStub(file) == null) {
+                KotlinPsiManager.INSTANCE.getParsedFile(file);
+            }
+        }
+    }
+}
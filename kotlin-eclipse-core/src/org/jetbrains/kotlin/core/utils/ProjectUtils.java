@@ -43,6 +43,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.core.KotlinClasspathContainer;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.index.KotlinDeclarationIndex;
+import org.jetbrains.kotlin.core.index.KotlinFileStub;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.load.kotlin.PackageClassUtils;
 import org.jetbrains.kotlin.name.FqName;
@@ -63,6 +65,11 @@ public class ProjectUtils {
     
     public static IFile findFilesWithMain(Collection<IFile> files) {
         for (IFile file : files) {
+            KotlinFileStub stub = KotlinDeclarationIndex.INSTANCE.getStub(file);
+            if (stub != null && !stub.hasTopLevelFunction("main")) {
+                continue;
+            }
+            
             JetFile jetFile = KotlinPsiManager.INSTANCE.getParsedFile(file);
             if (JetMainDetector.hasMain(jetFile.getDeclarations())) {
                 return file;
@@ -88,6 +95,11 @@ public class ProjectUtils {
     
     @Nullable
     public static String getPackageByFile(IFile file) {
+        KotlinFileStub stub = KotlinDeclarationIndex.INSTANCE.getStub(file);
+        if (stub != null) {
+            return stub.getPackageFqName().asString();
+        }
+        
         JetFile jetFile = KotlinPsiManager.INSTANCE.getParsedFile(file);
         
         assert jetFile != null;
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.jetbrains.kotlin.core.builder.ChangedRange;
+import org.junit.Test;
+
+public class ChangedRangeTest {
+    
+    @Test
+    public void replacement() {
+        ChangedRange range = ChangedRange.forReplacement(5, 3, 1);
+        assertRange(5, 8, 6, range);
+        assertEquals(-2, range.getLengthDelta());
+    }
+    
+    @Test
+    public void mergeEditAfterRange() {
+        // "0123456789" -> "01ab3456789" -> "01ab345789"
+        ChangedRange range = ChangedRange.forReplacement(2, 1, 2).merge(7, 1, 0);
+        assertRange(2, 7, 7, range);
+    }
+    
+    @Test
+    public void mergeEditBeforeRange() {
+        // "0123456789" -> "0123456ab89" -> "0x123456ab89"
+        ChangedRange range = ChangedRange.forReplacement(7, 1, 2).merge(1, 0, 1);
+        assertRange(1, 8, 10, range);
+    }
+    
+    @Test
+    public void mergeEditInsideRange() {
+        // "0123456789" -> "012abcd56789" -> "012ad56789"
+        ChangedRange range = ChangedRange.forReplacement(3, 2, 4).merge(4, 2, 0);
+        assertRange(3, 5, 5, range);
+    }
+    
+    @Test
+    public void mergeEditOverlappingRange() {
+        // "0123456789" -> "012ab56789" -> "0x6789"
+        ChangedRange range = ChangedRange.forReplacement(3, 2, 2).merge(1, 5, 1);
+        assertRange(1, 6, 2, range);
+    }
+    
+    @Test
+    public void mergedRangeCoversAllEdits() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String oldText = randomText(random, random.nextInt(21), "abc");
+            String text = oldText;
+            ChangedRange range = null;
+            
+            int editsCount = 1 + random.nextInt(5);
+            for (int edit = 0; edit < editsCount; edit++) {
+                int offset = random.nextInt(text.length() + 1);
+                int replacedLength = random.nextInt(text.length() - offset + 1);
+                int insertedLength = random.nextInt(5);
+                
+                text = text.substring(0, offset) + randomText(random, insertedLength, "xyz") + text.substring(offset + replacedLength);
+                range = range == null ? 
+                        ChangedRange.forReplacement(offset, replacedLength, insertedLength) : 
+                        range.merge(offset, replacedLength, insertedLength);
+            }
+            
+            String message = oldText + " -> " + text + ": " + range;
+            assertTrue(message, range.getOldEndOffset() <= oldText.length());
+            assertTrue(message, range.getNewEndOffset() <= text.length());
+            assertEquals(message, text.length() - oldText.length(), range.getLengthDelta());
+            assertEquals(message, oldText.substring(0, range.getStartOffset()), text.substring(0, range.getStartOffset()));
+            assertEquals(message, oldText.substring(range.getOldEndOffset()), text.substring(range.getNewEndOffset()));
+        }
+    }
+    
+    private static void assertRange(int startOffset, int oldEndOffset, int newEndOffset, ChangedRange range) {
+        assertEquals(startOffset, range.getStartOffset());
+        assertEquals(oldEndOffset, range.getOldEndOffset());
+        assertEquals(newEndOffset, range.getNewEndOffset());
+    }
+    
+    private static String randomText(Random random, int length, String alphabet) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        
+        return text.toString();
+    }
+}
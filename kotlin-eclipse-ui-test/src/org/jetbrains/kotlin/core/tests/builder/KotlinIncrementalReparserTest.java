@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jetbrains.kotlin.core.builder.ChangedRange;
+import org.jetbrains.kotlin.core.builder.KotlinIncrementalReparser;
+import org.jetbrains.kotlin.core.tests.diagnostics.JetTestUtils;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.intellij.psi.impl.DebugUtil;
+
+public class KotlinIncrementalReparserTest extends KotlinProjectTestCase {
+    
+    private static final String FUNCTIONS = 
+            "package test\n" + 
+            "\n" + 
+            "fun foo() {\n" + 
+            "    val x = 1\n" + 
+            "}\n" + 
+            "\n" + 
+            "fun bar() {\n" + 
+            "    foo()\n" + 
+            "}\n";
+    
+    @Before
+    public void configure() {
+        configureProject();
+    }
+    
+    @Test
+    public void changeInFunctionBody() {
+        assertTrue(doTest(FUNCTIONS, FUNCTIONS.replace("val x = 1", "val x = 1 + 2\n    val y = x")));
+    }
+    
+    @Test
+    public void changeInFunctionLiteral() {
+        String text = "fun foo() {\n    run { 1 }\n}\n\nval g = 2\n";
+        assertTrue(doTest(text, text.replace("{ 1 }", "{ 1 + 2 }")));
+    }
+    
+    @Test
+    public void changeInFunctionLiteralOutsideOfCodeBlocks() {
+        // Type of the property depends on the literal
+        String text = "val f = { 1 }\n\nval g = 2\n";
+        assertFalse(doTest(text, text.replace("{ 1 }", "{ 1 + 2 }")));
+    }
+    
+    @Test
+    public void changeInMemberFunctionBody() {
+        String text = "class A {\n    fun a() {\n        1\n    }\n}\n\nclass B\n";
+        assertTrue(doTest(text, text.replace("        1\n", "        1 + 2\n")));
+    }
+    
+    @Test
+    public void changeInClassBody() {
+        String text = "class A {\n    val a = 1\n}\n\nclass B\n";
+        assertFalse(doTest(text, text.replace("val a = 1\n", "val a = 1\n    fun b() = a\n")));
+        assertFalse(doTest(text, text.replace("val a = 1\n", "val a = 1 // comment\n")));
+    }
+    
+    @Test
+    public void changeInNestedBlock() {
+        String text = "fun foo() {\n    if (true) {\n        1\n    }\n    2\n}\n";
+        assertTrue(doTest(text, text.replace("        1\n", "        1 + 2\n")));
+    }
+    
+    @Test
+    public void severalMergedChangesInBlock() {
+        String text = FUNCTIONS.replace("val x = 1", "val x = 1\n    val y = 2");
+        JetFile jetFile = createJetFile(text);
+        
+        // "val x = 1" -> "val x = 10", then "val y = 2" -> "var y = 2"
+        int firstOffset = text.indexOf("1\n");
+        String firstText = text.substring(0, firstOffset + 1) + "0" + text.substring(firstOffset + 1);
+        int secondOffset = firstText.indexOf("val y");
+        String secondText = firstText.substring(0, secondOffset) + "var" + firstText.substring(secondOffset + 3);
+        
+        ChangedRange range = ChangedRange.forReplacement(firstOffset + 1, 0, 1).merge(secondOffset, 3, 3);
+        assertTrue(KotlinIncrementalReparser.reparse(jetFile, secondText, range));
+        assertSameTree(secondText, jetFile);
+    }
+    
+    @Test
+    public void unterminatedCommentInBlock() {
+        assertFalse(doTest(FUNCTIONS, FUNCTIONS.replace("val x = 1", "/* val x = 1")));
+    }
+    
+    @Test
+    public void unterminatedMultilineStringInBlock() {
+        assertFalse(doTest(FUNCTIONS, FUNCTIONS.replace("val x = 1", "val x = \"\"\"1")));
+    }
+    
+    @Test
+    public void unterminatedStringInBlock() {
+        // String literal ends at the line break, so the block may be reparsed as long as the tree matches a full parse
+        doTest(FUNCTIONS, FUNCTIONS.replace("val x = 1", "val x = \"1"));
+    }
+    
+    @Test
+    public void removedClosingBrace() {
+        assertFalse(doTest(FUNCTIONS, FUNCTIONS.replaceFirst("\n}\n", "\n\n")));
+    }
+    
+    @Test
+    public void addedClosingBrace() {
+        assertFalse(doTest(FUNCTIONS, FUNCTIONS.replace("val x = 1", "val x = 1 }")));
+    }
+    
+    @Test
+    public void changeOutsideOfBlocks() {
+        assertFalse(doTest(FUNCTIONS, FUNCTIONS.replace("fun foo()", "fun foo(a: Int)")));
+    }
+    
+    @Test
+    public void changeWithLineSeparators() {
+        assertFalse(doTest(FUNCTIONS, FUNCTIONS.replace("val x = 1", "val x = 1\r\n    val y = 2")));
+    }
+    
+    /**
+     * Applies the change to the tree of the old text and checks that the result matches the tree of the new text
+     * 
+     * @return {@code true} if the change was reparsed incrementally
+     */
+    private boolean doTest(String oldText, String newText) {
+        JetFile jetFile = createJetFile(oldText);
+        
+        boolean reparsed = KotlinIncrementalReparser.reparse(jetFile, newText, getChangedRange(oldText, newText));
+        if (reparsed) {
+            assertSameTree(newText, jetFile);
+        } else {
+            assertSameTree(oldText, jetFile);
+        }
+        
+        return reparsed;
+    }
+    
+    private void assertSameTree(String expectedText, JetFile jetFile) {
+        assertEquals(expectedText, jetFile.getText());
+        assertEquals(DebugUtil.psiToString(createJetFile(expectedText), false), DebugUtil.psiToString(jetFile, false));
+    }
+    
+    private JetFile createJetFile(String text) {
+        return JetTestUtils.createFile("test.kt", text, getTestProject().getKotlinEnvironment().getProject());
+    }
+    
+    private static ChangedRange getChangedRange(String oldText, String newText) {
+        int minLength = Math.min(oldText.length(), newText.length());
+        
+        int prefixLength = 0;
+        while (prefixLength < minLength && oldText.charAt(prefixLength) == newText.charAt(prefixLength)) {
+            prefixLength++;
+        }
+        
+        int suffixLength = 0;
+        while (suffixLength < minLength - prefixLength && 
+                oldText.charAt(oldText.length() - 1 - suffixLength) == newText.charAt(newText.length() - 1 - suffixLength)) {
+            suffixLength++;
+        }
+        
+        return new ChangedRange(prefixLength, oldText.length() - suffixLength, newText.length() - suffixLength);
+    }
+}
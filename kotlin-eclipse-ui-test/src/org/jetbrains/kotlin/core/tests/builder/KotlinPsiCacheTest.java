@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.Path;
+import org.jetbrains.kotlin.core.builder.KotlinPsiCache;
+import org.jetbrains.kotlin.core.tests.diagnostics.JetTestUtils;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KotlinPsiCacheTest extends KotlinProjectTestCase {
+    
+    private static final String SOURCE_CODE = "fun foo() {}";
+    
+    private final IFile fileA = getFile("a.kt");
+    private final IFile fileB = getFile("b.kt");
+    private final IFile fileC = getFile("c.kt");
+    
+    @Before
+    public void configure() {
+        configureProject();
+    }
+    
+    @Test
+    public void evictLeastRecentlyUsedFile() {
+        KotlinPsiCache cache = new KotlinPsiCache(2, Long.MAX_VALUE);
+        put(cache, fileA);
+        put(cache, fileB);
+        cache.get(fileA);
+        put(cache, fileC);
+        
+        assertEquals(2, cache.getCachedFilesCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(fileB));
+        assertNotNull(cache.get(fileA));
+        assertNotNull(cache.get(fileC));
+    }
+    
+    @Test
+    public void evictFilesOverSizeBudget() {
+        KotlinPsiCache unboundedCache = new KotlinPsiCache(Long.MAX_VALUE, Long.MAX_VALUE);
+        put(unboundedCache, fileA);
+        long fileSize = unboundedCache.getEstimatedSize(fileA);
+        assertTrue(fileSize > 0);
+        
+        KotlinPsiCache cache = new KotlinPsiCache(Long.MAX_VALUE, 2 * fileSize);
+        put(cache, fileA);
+        put(cache, fileB);
+        put(cache, fileC);
+        
+        assertEquals(2, cache.getCachedFilesCount());
+        assertEquals(2 * fileSize, cache.getEstimatedSize());
+        assertNull(cache.get(fileA));
+    }
+    
+    @Test
+    public void doNotEvictPinnedFiles() {
+        KotlinPsiCache cache = new KotlinPsiCache(1, Long.MAX_VALUE);
+        cache.pin(fileA);
+        put(cache, fileA);
+        put(cache, fileB);
+        
+        assertTrue(cache.isPinned(fileA));
+        assertNotNull(cache.get(fileA));
+        assertNull(cache.get(fileB));
+        
+        cache.unpin(fileA);
+        put(cache, fileC);
+        
+        assertFalse(cache.isPinned(fileA));
+        assertNull(cache.get(fileA));
+        assertNotNull(cache.get(fileC));
+    }
+    
+    @Test
+    public void doNotEvictRetainedFiles() {
+        KotlinPsiCache cache = new KotlinPsiCache(1, Long.MAX_VALUE);
+        JetFile jetFile = put(cache, fileA);
+        cache.retain(jetFile);
+        put(cache, fileB);
+        
+        assertNotNull(cache.get(fileA));
+        assertNull(cache.get(fileB));
+        
+        cache.release(jetFile);
+        put(cache, fileC);
+        
+        assertNull(cache.get(fileA));
+        assertNotNull(cache.get(fileC));
+    }
+    
+    @Test
+    public void doNotEvictFilesWhichAreBeingParsed() {
+        KotlinPsiCache cache = new KotlinPsiCache(1, Long.MAX_VALUE);
+        Future<JetFile> parsingFile = new FutureTask<JetFile>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        cache.putIfAbsent(fileA, parsingFile);
+        put(cache, fileB);
+        
+        assertEquals(parsingFile, cache.get(fileA));
+        assertNull(cache.get(fileB));
+    }
+    
+    @Test
+    public void accountSizeOfCachedFiles() {
+        KotlinPsiCache cache = new KotlinPsiCache(Long.MAX_VALUE, Long.MAX_VALUE);
+        JetFile jetFileA = createJetFile(SOURCE_CODE);
+        Future<JetFile> parsedFileA = parsed(jetFileA);
+        cache.putIfAbsent(fileA, parsedFileA);
+        assertEquals(0, cache.getEstimatedSize(fileA));
+        
+        cache.parsed(fileA, parsedFileA, jetFileA);
+        long sizeA = cache.getEstimatedSize(fileA);
+        assertTrue(sizeA > 0);
+        
+        put(cache, fileB, SOURCE_CODE + SOURCE_CODE);
+        long sizeB = cache.getEstimatedSize(fileB);
+        assertEquals(2 * sizeA, sizeB);
+        assertEquals(sizeA + sizeB, cache.getEstimatedSize());
+        
+        cache.parsed(fileA, parsedFileA, jetFileA);
+        assertEquals(sizeA + sizeB, cache.getEstimatedSize());
+        
+        Future<JetFile> reparsedFileA = parsed(jetFileA);
+        assertTrue(cache.replace(fileA, parsedFileA, reparsedFileA));
+        assertFalse(cache.replace(fileA, parsedFileA, reparsedFileA));
+        assertEquals(sizeB, cache.getEstimatedSize());
+        
+        cache.parsed(fileA, reparsedFileA, jetFileA);
+        assertEquals(sizeA + sizeB, cache.getEstimatedSize());
+        
+        cache.remove(fileB);
+        assertEquals(sizeA, cache.getEstimatedSize());
+        
+        cache.remove(fileA);
+        assertEquals(0, cache.getEstimatedSize());
+        assertEquals(0, cache.getCachedFilesCount());
+    }
+    
+    @Test
+    public void countHitsAndMisses() {
+        KotlinPsiCache cache = new KotlinPsiCache(Long.MAX_VALUE, Long.MAX_VALUE);
+        assertNull(cache.get(fileA));
+        put(cache, fileA);
+        cache.get(fileA);
+        cache.get(fileA);
+        
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+    
+    private JetFile put(KotlinPsiCache cache, IFile file) {
+        return put(cache, file, SOURCE_CODE);
+    }
+    
+    private JetFile put(KotlinPsiCache cache, IFile file, String text) {
+        JetFile jetFile = createJetFile(text);
+        Future<JetFile> parsedFile = parsed(jetFile);
+        assertNull(cache.putIfAbsent(file, parsedFile));
+        cache.parsed(file, parsedFile, jetFile);
+        
+        return jetFile;
+    }
+    
+    private JetFile createJetFile(String text) {
+        return JetTestUtils.createFile("test.kt", text, getTestProject().getKotlinEnvironment().getProject());
+    }
+    
+    private static Future<JetFile> parsed(JetFile jetFile) {
+        FutureTask<JetFile> parsedFile = new FutureTask<JetFile>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, jetFile);
+        parsedFile.run();
+        
+        return parsedFile;
+    }
+    
+    private static IFile getFile(String name) {
+        return ResourcesPlugin.getWorkspace().getRoot().getFile(new Path("/psi_cache_test/src/" + name));
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.JavaCore;
+import org.jetbrains.kotlin.core.builder.KotlinSourceRoots;
+import org.junit.Test;
+
+public class KotlinSourceRootsTest {
+    
+    private static final IPath[] NO_PATTERNS = new IPath[0];
+    
+    @Test
+    public void containResourcesUnderSourceFolder() {
+        KotlinSourceRoots sourceRoots = createSourceRoots(sourceEntry("/p/src"));
+        
+        assertTrue(sourceRoots.contains(file("/p/src/a.kt")));
+        assertTrue(sourceRoots.contains(file("/p/src/pkg/inner/a.kt")));
+        assertTrue(sourceRoots.contains(folder("/p/src/pkg")));
+        
+        assertFalse(sourceRoots.contains(file("/p/a.kt")));
+        assertFalse(sourceRoots.contains(file("/p/src2/a.kt")));
+        assertFalse(sourceRoots.contains(file("/q/src/a.kt")));
+    }
+    
+    @Test
+    public void projectAsSourceFolder() {
+        KotlinSourceRoots sourceRoots = createSourceRoots(sourceEntry("/p"));
+        
+        assertTrue(sourceRoots.contains(file("/p/a.kt")));
+        assertTrue(sourceRoots.contains(file("/p/pkg/a.kt")));
+        assertFalse(sourceRoots.contains(file("/q/a.kt")));
+        assertEquals(Collections.singletonList(new Path("/p")), sourceRoots.getTopLevelRoots());
+    }
+    
+    @Test
+    public void exclusionPatterns() {
+        KotlinSourceRoots sourceRoots = createSourceRoots(
+                JavaCore.newSourceEntry(new Path("/p/src"), NO_PATTERNS, new IPath[] { new Path("**/gen/**") }, null));
+        
+        assertTrue(sourceRoots.contains(file("/p/src/a.kt")));
+        assertFalse(sourceRoots.contains(file("/p/src/gen/a.kt")));
+        assertFalse(sourceRoots.contains(file("/p/src/pkg/gen/a.kt")));
+    }
+    
+    @Test
+    public void inclusionPatterns() {
+        KotlinSourceRoots sourceRoots = createSourceRoots(
+                JavaCore.newSourceEntry(new Path("/p/src"), new IPath[] { new Path("main/") }, NO_PATTERNS, null));
+        
+        assertTrue(sourceRoots.contains(file("/p/src/main/a.kt")));
+        assertTrue(sourceRoots.contains(file("/p/src/main/pkg/a.kt")));
+        assertFalse(sourceRoots.contains(file("/p/src/test/a.kt")));
+        assertFalse(sourceRoots.contains(file("/p/src/a.kt")));
+    }
+    
+    @Test
+    public void nestedSourceFolders() {
+        KotlinSourceRoots sourceRoots = createSourceRoots(
+                JavaCore.newSourceEntry(new Path("/p/src"), new IPath[] { new Path("gen/") }),
+                sourceEntry("/p/src/gen"),
+                sourceEntry("/p/test"));
+        
+        assertTrue(sourceRoots.contains(file("/p/src/a.kt")));
+        assertTrue(sourceRoots.contains(file("/p/src/gen/a.kt")));
+        assertTrue(sourceRoots.contains(file("/p/src/gen/pkg/a.kt")));
+        assertTrue(sourceRoots.contains(file("/p/test/a.kt")));
+        assertEquals(Arrays.<IPath>asList(new Path("/p/src"), new Path("/p/test")), sourceRoots.getTopLevelRoots());
+    }
+    
+    @Test
+    public void ignoreNotSourceEntries() {
+        KotlinSourceRoots sourceRoots = createSourceRoots(
+                sourceEntry("/p/src"),
+                JavaCore.newLibraryEntry(new Path("/p/lib"), null, null),
+                JavaCore.newProjectEntry(new Path("/q")));
+        
+        assertFalse(sourceRoots.contains(file("/p/lib/a.kt")));
+        assertFalse(sourceRoots.contains(file("/q/a.kt")));
+        assertEquals(Collections.singletonList(new Path("/p/src")), sourceRoots.getTopLevelRoots());
+    }
+    
+    private static KotlinSourceRoots createSourceRoots(IClasspathEntry... classpathEntries) {
+        return new KotlinSourceRoots(classpathEntries);
+    }
+    
+    private static IClasspathEntry sourceEntry(String path) {
+        return JavaCore.newSourceEntry(new Path(path));
+    }
+    
+    private static IResource file(String path) {
+        return ResourcesPlugin.getWorkspace().getRoot().getFile(new Path(path));
+    }
+    
+    private static IResource folder(String path) {
+        return ResourcesPlugin.getWorkspace().getRoot().getFolder(new Path(path));
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.IJavaProject;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.index.KotlinDependencyGraph;
+import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
+import org.jetbrains.kotlin.core.tests.diagnostics.JetTestUtils;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.BindingContext;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.testframework.editor.TextEditorTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class KotlinDependencyGraphTest extends KotlinProjectTestCase {
+    
+    private static final String PACKAGE = TextEditorTest.TEST_PACKAGE_NAME;
+    
+    private static final String CLASS_A = PACKAGE + ".DependencyA";
+    private static final String FUNCTION_A = PACKAGE + ".unusedA";
+    private static final String FUNCTION_B = PACKAGE + ".dependencyB";
+    private static final String FUNCTION_C = PACKAGE + ".dependencyC";
+    
+    private static final String TEXT_A = 
+            "package " + PACKAGE + "\n" + 
+            "\n" + 
+            "class DependencyA\n" + 
+            "\n" + 
+            "fun unusedA() {}\n";
+    
+    private IFile fileA;
+    private IFile fileB;
+    private IFile fileC;
+    private IFile fileD;
+    
+    private KotlinDependencyGraph graph;
+    
+    @Before
+    public void configure() {
+        configureProject();
+        
+        // Signature of dependencyB depends on DependencyA
+        fileA = createFile("DependencyA.kt", TEXT_A);
+        fileB = createFile("DependencyB.kt", 
+                "package " + PACKAGE + "\n" + 
+                "\n" + 
+                "fun dependencyB(): DependencyA = DependencyA()\n");
+        fileC = createFile("DependencyC.kt", 
+                "package " + PACKAGE + "\n" + 
+                "\n" + 
+                "fun dependencyC() {\n" + 
+                "    dependencyB()\n" + 
+                "}\n");
+        fileD = createFile("DependencyD.kt", 
+                "package " + PACKAGE + "\n" + 
+                "\n" + 
+                "fun dependencyD() {\n" + 
+                "    val a: DependencyA? = null\n" + 
+                "}\n");
+        
+        IJavaProject javaProject = getTestProject().getJavaProject();
+        BindingContext bindingContext = KotlinAnalysisProjectCache.getInstance(javaProject).getAnalysisResult().getBindingContext();
+        
+        graph = KotlinDependencyGraph.getInstance(javaProject.getProject());
+        for (IFile file : new IFile[] { fileA, fileB, fileC, fileD }) {
+            JetFile jetFile = KotlinPsiManager.getKotlinParsedFile(file);
+            assertNotNull(jetFile);
+            graph.update(file, jetFile, bindingContext);
+        }
+    }
+    
+    @Test
+    public void recordedDeclarations() {
+        assertEquals(Sets.newHashSet(CLASS_A, FUNCTION_A), graph.getDeclarations(fileA));
+        assertEquals(Collections.singleton(FUNCTION_C), graph.getDeclarations(fileC));
+    }
+    
+    @Test
+    public void transitiveDependents() {
+        assertEquals(Sets.newHashSet(fileB, fileC, fileD), graph.getDependents(fileA, Collections.singleton(CLASS_A)));
+        assertEquals(Collections.singleton(fileC), graph.getDependents(fileB, Collections.singleton(FUNCTION_B)));
+    }
+    
+    @Test
+    public void noDependentsOfUnusedDeclarations() {
+        assertTrue(graph.getDependents(fileA, Collections.singleton(FUNCTION_A)).isEmpty());
+        assertTrue(graph.getDependents(fileC, Collections.singleton(FUNCTION_C)).isEmpty());
+        assertTrue(graph.getDependents(fileA, Collections.<String>emptySet()).isEmpty());
+    }
+    
+    @Test
+    public void removedFileIsNotDependent() {
+        graph.remove(fileB);
+        
+        assertEquals(Collections.singleton(fileD), graph.getDependents(fileA, Collections.singleton(CLASS_A)));
+        assertTrue(graph.getDeclarations(fileB).isEmpty());
+    }
+    
+    @Test
+    public void changedDeclarations() {
+        assertTrue(getChangedDeclarations(fileA, TEXT_A).isEmpty());
+        assertTrue(getChangedDeclarations(fileA, TEXT_A.replace("fun unusedA() {}", "fun unusedA() { 1 }")).isEmpty());
+        
+        assertEquals(Collections.singleton(CLASS_A), 
+                getChangedDeclarations(fileA, TEXT_A.replace("class DependencyA", "class DependencyA(val x: Int)")));
+        assertEquals(Collections.singleton(FUNCTION_A), 
+                getChangedDeclarations(fileA, TEXT_A.replace("fun unusedA() {}\n", "")));
+        assertEquals(Collections.singleton(PACKAGE + ".addedA"), 
+                getChangedDeclarations(fileA, TEXT_A + "fun addedA() {}\n"));
+    }
+    
+    @Test
+    public void persistence() throws IOException {
+        File stateLocation = Files.createTempDirectory("dependencies").toFile();
+        try {
+            IPath stateLocationPath = new Path(stateLocation.getAbsolutePath());
+            KotlinDependencyGraph.saveAll(stateLocationPath);
+            
+            KotlinDependencyGraph loadedGraph = KotlinDependencyGraph.load(stateLocationPath, fileA.getProject());
+            assertEquals(graph.getDeclarations(fileA), loadedGraph.getDeclarations(fileA));
+            assertEquals(Sets.newHashSet(fileB, fileC, fileD), loadedGraph.getDependents(fileA, Collections.singleton(CLASS_A)));
+            assertEquals(Collections.singleton(fileC), loadedGraph.getDependents(fileB, Collections.singleton(FUNCTION_B)));
+        } finally {
+            for (File file : stateLocation.listFiles()) {
+                file.delete();
+            }
+            stateLocation.delete();
+        }
+    }
+    
+    private Set<String> getChangedDeclarations(IFile file, String newText) {
+        JetFile jetFile = JetTestUtils.createFile(file.getName(), newText, getTestProject().getKotlinEnvironment().getProject());
+        return graph.getChangedDeclarations(file, jetFile);
+    }
+    
+    private IFile createFile(String name, String content) {
+        try {
+            return getTestProject().createSourceFile(PACKAGE, name, content);
+        } catch (CoreException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.core.runtime.CoreException;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler.Priority;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.testframework.editor.TextEditorTest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KotlinAnalysisProjectCacheTest extends KotlinProjectTestCase {
+    
+    private static final String FILE_NAME = "CachedFile.kt";
+    private static final String TEXT = "package " + TextEditorTest.TEST_PACKAGE_NAME + "\n\nfun cached() {}\n";
+    
+    private KotlinAnalysisProjectCache cache;
+    
+    @Before
+    public void configure() throws CoreException {
+        configureProject();
+        getTestProject().createSourceFile(TextEditorTest.TEST_PACKAGE_NAME, FILE_NAME, TEXT);
+        cache = KotlinAnalysisProjectCache.getInstance(getTestProject().getJavaProject());
+    }
+    
+    @Test
+    public void unchangedProjectIsNotPublishedAgain() {
+        AnalysisResult analysisResult = cache.getAnalysisResult();
+        long version = cache.getSnapshotVersion();
+        
+        assertSame(analysisResult, cache.getAnalysisResult());
+        assertEquals(version, cache.getSnapshotVersion());
+    }
+    
+    @Test
+    public void changedProjectIsPublishedAsNewVersion() throws CoreException {
+        AnalysisResult analysisResult = cache.getAnalysisResult();
+        long version = cache.getSnapshotVersion();
+        
+        getTestProject().createSourceFile(TextEditorTest.TEST_PACKAGE_NAME, FILE_NAME, TEXT + "fun added() {}\n");
+        
+        assertTrue(analysisResult != cache.getAnalysisResult());
+        assertTrue(cache.getSnapshotVersion() > version);
+    }
+    
+    @Test
+    public void waitingRequestIsAnsweredWithoutNewVersion() {
+        AnalysisResult analysisResult = cache.getAnalysisResult();
+        
+        long start = System.currentTimeMillis();
+        assertSame(analysisResult, cache.getAnalysisResult(60000, Priority.NAVIGATION));
+        assertTrue(System.currentTimeMillis() - start < 30000);
+    }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.model;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.IJavaProject;
+import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KotlinEnvironmentTest extends KotlinProjectTestCase {
+    
+    private IJavaProject javaProject;
+    
+    @Before
+    public void configure() {
+        configureProject();
+        javaProject = getTestProject().getJavaProject();
+    }
+    
+    @Test
+    public void environmentIsCreatedOncePerProject() {
+        KotlinEnvironment environment = KotlinEnvironment.getEnvironment(javaProject);
+        
+        assertSame(environment, KotlinEnvironment.getEnvironment(javaProject));
+        assertSame(environment, KotlinEnvironment.getEnvironmentIfReady(javaProject));
+    }
+    
+    @Test
+    public void disposedEnvironmentIsCreatedAgain() {
+        KotlinEnvironment environment = KotlinEnvironment.getEnvironment(javaProject);
+        KotlinEnvironment.disposeEnvironment(javaProject);
+        
+        KotlinEnvironment newEnvironment = KotlinEnvironment.getEnvironment(javaProject);
+        assertTrue(environment != newEnvironment);
+        assertSame(newEnvironment, KotlinEnvironment.getEnvironment(javaProject));
+    }
+    
+    @Test
+    public void concurrentRequestsShareEnvironment() throws Exception {
+        KotlinEnvironment.disposeEnvironment(javaProject);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<KotlinEnvironment> request = new Callable<KotlinEnvironment>() {
+                @Override
+                public KotlinEnvironment call() {
+                    return KotlinEnvironment.getEnvironment(javaProject);
+                }
+            };
+            
+            Future<KotlinEnvironment> first = executor.submit(request);
+            Future<KotlinEnvironment> second = executor.submit(request);
+            Future<KotlinEnvironment> third = executor.submit(request);
+            
+            assertSame(first.get(), second.get());
+            assertSame(first.get(), third.get());
+            assertSame(first.get(), KotlinEnvironment.getEnvironment(javaProject));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void environmentIsNotReadyUntilCreated() throws Exception {
+        KotlinEnvironment.disposeEnvironment(javaProject);
+        
+        assertNull(KotlinEnvironment.getEnvironmentIfReady(javaProject));
+        
+        KotlinEnvironment environment = KotlinEnvironment.getEnvironment(javaProject);
+        assertNotNull(environment);
+        assertSame(environment, KotlinEnvironment.getEnvironmentIfReady(javaProject));
+    }
+    
+    @Test
+    public void unchangedClasspathKeepsEnvironment() {
+        KotlinEnvironment environment = KotlinEnvironment.getEnvironment(javaProject);
+        KotlinEnvironment.updateKotlinEnvironment(javaProject);
+        
+        assertSame(environment, KotlinEnvironment.getEnvironment(javaProject));
+    }
+    
+    @Test
+    public void addedRootIsAppliedToEnvironment() throws CoreException {
+        KotlinEnvironment environment = KotlinEnvironment.getEnvironment(javaProject);
+        try {
+            getTestProject().createSourceFolder("addedSrc");
+            KotlinEnvironment.updateKotlinEnvironment(javaProject);
+            
+            assertSame(environment, KotlinEnvironment.getEnvironment(javaProject));
+        } finally {
+            getTestProject().setDefaultSettings();
+        }
+    }
+    
+    @Test
+    public void leasedEnvironmentIsRecreatedOnClasspathChange() throws CoreException {
+        KotlinEnvironment environment = KotlinEnvironment.acquireEnvironment(javaProject);
+        try {
+            getTestProject().createSourceFolder("addedSrc");
+            KotlinEnvironment.updateKotlinEnvironment(javaProject);
+            
+            assertTrue(environment != KotlinEnvironment.getEnvironment(javaProject));
+        } finally {
+            environment.release();
+            getTestProject().setDefaultSettings();
+        }
+    }
+}
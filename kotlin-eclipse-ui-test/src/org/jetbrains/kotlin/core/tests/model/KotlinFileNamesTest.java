@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.jetbrains.kotlin.core.model.KotlinFileNames;
+import org.jetbrains.kotlin.core.tests.diagnostics.JetTestUtils;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class KotlinFileNamesTest extends KotlinProjectTestCase {
+    
+    @Before
+    public void configure() {
+        configureProject();
+    }
+    
+    @Test
+    public void declaredNamesOutsideOfCodeBlocks() {
+        KotlinFileNames names = collect(
+                "class A {\n" + 
+                "    fun b() {}\n" + 
+                "    val c = 1\n" + 
+                "    object D\n" + 
+                "}\n" + 
+                "fun e() {\n" + 
+                "    val local = 1\n" + 
+                "    fun localFunction() {}\n" + 
+                "}\n" + 
+                "val f: Int = 1\n");
+        
+        assertEquals(Sets.newHashSet("A", "b", "c", "D", "e", "f"), names.getDeclaredNames());
+    }
+    
+    @Test
+    public void referencedNames() {
+        KotlinFileNames names = collect("fun f(a: A) {\n    foo()\n    a.bar\n}\n");
+        
+        assertTrue(names.referencesAny(Collections.singleton("foo")));
+        assertTrue(names.referencesAny(Collections.singleton("bar")));
+        assertTrue(names.referencesAny(Collections.singleton("A")));
+        assertTrue(names.referencesAny(Sets.newHashSet("baz", "foo")));
+        assertFalse(names.referencesAny(Collections.singleton("baz")));
+        assertFalse(names.referencesAny(Collections.<String>emptySet()));
+    }
+    
+    @Test
+    public void conventionNamesAreAlwaysReferenced() {
+        KotlinFileNames names = collect("fun f() {}");
+        
+        assertTrue(names.referencesAny(Collections.singleton("plus")));
+        assertTrue(names.referencesAny(Collections.singleton("get")));
+        assertTrue(names.referencesAny(Collections.singleton("iterator")));
+        assertTrue(names.referencesAny(Collections.singleton("propertyDelegated")));
+        assertTrue(names.referencesAny(Collections.singleton("component2")));
+        assertFalse(names.referencesAny(Collections.singleton("f")));
+    }
+    
+    private KotlinFileNames collect(String text) {
+        return KotlinFileNames.collect(JetTestUtils.createFile("test.kt", text, getTestProject().getKotlinEnvironment().getProject()));
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.model;
+
+import static org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.getHistogramBucket;
+import static org.junit.Assert.assertEquals;
+
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.model.KotlinPhaseStatistics;
+import org.junit.Test;
+
+public class KotlinPerformanceStatisticsTest {
+    
+    @Test
+    public void shortTimesAreInFirstBucket() {
+        assertEquals(0, getHistogramBucket(-1));
+        assertEquals(0, getHistogramBucket(0));
+        assertEquals(0, getHistogramBucket(1));
+    }
+    
+    @Test
+    public void bucketsOfPowersOfTwo() {
+        assertEquals(1, getHistogramBucket(2));
+        assertEquals(2, getHistogramBucket(3));
+        assertEquals(2, getHistogramBucket(4));
+        assertEquals(3, getHistogramBucket(5));
+        assertEquals(10, getHistogramBucket(1024));
+        assertEquals(11, getHistogramBucket(1025));
+    }
+    
+    @Test
+    public void longTimesAreInLastBucket() {
+        long[] bounds = KotlinPerformanceStatistics.INSTANCE.getHistogramBounds();
+        long lastBound = bounds[bounds.length - 1];
+        
+        assertEquals(bounds.length - 1, getHistogramBucket(lastBound));
+        assertEquals(bounds.length, getHistogramBucket(lastBound + 1));
+        assertEquals(bounds.length, getHistogramBucket(Long.MAX_VALUE));
+    }
+    
+    @Test
+    public void bucketsMatchPublishedBounds() {
+        long[] bounds = KotlinPerformanceStatistics.INSTANCE.getHistogramBounds();
+        for (int i = 0; i < bounds.length; i++) {
+            assertEquals(i, getHistogramBucket(bounds[i]));
+            assertEquals(i + 1, getHistogramBucket(bounds[i] + 1));
+        }
+    }
+    
+    @Test
+    public void histogramsHaveBucketForLongTimes() {
+        int boundsCount = KotlinPerformanceStatistics.INSTANCE.getHistogramBounds().length;
+        for (KotlinPhaseStatistics phase : KotlinPerformanceStatistics.INSTANCE.getPhases().values()) {
+            assertEquals(boundsCount + 1, phase.getHistogram().length);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.internal.core.JavaElementDelta;
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaLookupCache;
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaModelListener;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.testframework.editor.TextEditorTest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EclipseJavaLookupCacheTest extends KotlinProjectTestCase {
+    
+    private static final String PACKAGE = TextEditorTest.TEST_PACKAGE_NAME;
+    
+    private IJavaProject javaProject;
+    
+    @Before
+    public void configure() throws CoreException {
+        configureProject();
+        
+        getTestProject().createSourceFile(PACKAGE, "LookupA.java", 
+                "package " + PACKAGE + ";\n\npublic class LookupA {\n}\n");
+        
+        javaProject = getTestProject().getJavaProject();
+        EclipseJavaLookupCache.invalidateAll();
+    }
+    
+    @Test
+    public void typesAndPackagesAreFound() throws CoreException {
+        EclipseJavaLookupCache cache = EclipseJavaLookupCache.getInstance(javaProject);
+        
+        IType type = cache.findType(PACKAGE + ".LookupA");
+        assertNotNull(type);
+        assertSame(type, cache.findType(PACKAGE + ".LookupA"));
+        
+        assertNull(cache.findType(PACKAGE + ".Missing"));
+        assertNull(cache.findType(PACKAGE + ".Missing"));
+        
+        IPackageFragment[] fragments = cache.findPackageFragments(PACKAGE, false, false);
+        assertTrue(fragments.length > 0);
+        assertEquals(PACKAGE, fragments[0].getElementName());
+    }
+    
+    @Test
+    public void cacheSurvivesChangesWithoutDeclarations() throws CoreException {
+        EclipseJavaLookupCache cache = EclipseJavaLookupCache.getInstance(javaProject);
+        IType type = cache.findType(PACKAGE + ".LookupA");
+        
+        fireChange(type.getCompilationUnit(), IJavaElementDelta.F_PRIMARY_WORKING_COPY);
+        
+        assertSame(cache, EclipseJavaLookupCache.getInstance(javaProject));
+    }
+    
+    @Test
+    public void cacheIsDroppedWhenClasspathChanges() throws CoreException {
+        EclipseJavaLookupCache cache = EclipseJavaLookupCache.getInstance(javaProject);
+        IType type = cache.findType(PACKAGE + ".LookupA");
+        
+        long modificationCount = EclipseJavaModelListener.getModificationCount();
+        fireChange(type.getPackageFragment().getParent(), IJavaElementDelta.F_ADDED_TO_CLASSPATH);
+        
+        assertTrue(EclipseJavaModelListener.getModificationCount() > modificationCount);
+        assertTrue(cache != EclipseJavaLookupCache.getInstance(javaProject));
+    }
+    
+    @Test
+    public void missingTypeIsFoundAfterItIsAdded() throws CoreException {
+        EclipseJavaLookupCache cache = EclipseJavaLookupCache.getInstance(javaProject);
+        assertNull(cache.findType(PACKAGE + ".LookupB"));
+        
+        getTestProject().createSourceFile(PACKAGE, "LookupB.java", 
+                "package " + PACKAGE + ";\n\npublic class LookupB {\n}\n");
+        IType type = javaProject.findType(PACKAGE + ".LookupB");
+        fireChange(type.getCompilationUnit(), IJavaElementDelta.F_CHILDREN);
+        
+        assertNotNull(EclipseJavaLookupCache.getInstance(javaProject).findType(PACKAGE + ".LookupB"));
+    }
+    
+    private static void fireChange(IJavaElement element, int flags) {
+        JavaElementDelta delta = new JavaElementDelta(JavaCore.create(element.getResource().getWorkspace().getRoot()));
+        delta.changed(element, flags);
+        new EclipseJavaModelListener().elementChanged(new ElementChangedEvent(delta, ElementChangedEvent.POST_CHANGE));
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.internal.core.JavaElementDelta;
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaModelListener;
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseTypeBindingProvider;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.testframework.editor.TextEditorTest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EclipseTypeBindingProviderTest extends KotlinProjectTestCase {
+    
+    private static final String PACKAGE = TextEditorTest.TEST_PACKAGE_NAME;
+    
+    private IJavaProject javaProject;
+    private IType typeA;
+    private IType typeB;
+    
+    @Before
+    public void configure() throws CoreException {
+        configureProject();
+        
+        getTestProject().createSourceFile(PACKAGE, "BindingA.java", 
+                "package " + PACKAGE + ";\n\npublic class BindingA {\n    public BindingB b() { return null; }\n}\n");
+        getTestProject().createSourceFile(PACKAGE, "BindingB.java", 
+                "package " + PACKAGE + ";\n\npublic class BindingB {\n}\n");
+        
+        javaProject = getTestProject().getJavaProject();
+        typeA = javaProject.findType(PACKAGE + ".BindingA");
+        typeB = javaProject.findType(PACKAGE + ".BindingB");
+        assertNotNull(typeA);
+        assertNotNull(typeB);
+        
+        EclipseTypeBindingProvider.invalidateAll();
+    }
+    
+    @Test
+    public void bindingsAreCreatedForTypes() {
+        Map<IType, ITypeBinding> bindings = EclipseTypeBindingProvider.getInstance(javaProject).getTypeBindings(
+                Arrays.asList(typeA, typeB));
+        
+        assertEquals(PACKAGE + ".BindingA", bindings.get(typeA).getQualifiedName());
+        assertEquals(PACKAGE + ".BindingB", bindings.get(typeB).getQualifiedName());
+    }
+    
+    @Test
+    public void typesOfPackageAreBoundTogether() {
+        EclipseTypeBindingProvider provider = EclipseTypeBindingProvider.getInstance(javaProject);
+        ITypeBinding bindingA = provider.getTypeBinding(typeA);
+        assertNotNull(bindingA);
+        
+        // Binding of the sibling type was created by the same batch, so it is not created again
+        ITypeBinding bindingB = provider.getTypeBindings(Collections.singletonList(typeB)).get(typeB);
+        assertSame(bindingB, provider.getTypeBinding(typeB));
+        assertSame(bindingA.getMethods()[0].getReturnType(), bindingB);
+    }
+    
+    @Test
+    public void bindingsSurviveChangesWithoutDeclarations() {
+        EclipseTypeBindingProvider provider = EclipseTypeBindingProvider.getInstance(javaProject);
+        ITypeBinding binding = provider.getTypeBinding(typeA);
+        
+        long modificationCount = EclipseJavaModelListener.getModificationCount();
+        fireChange(typeA.getCompilationUnit(), IJavaElementDelta.F_PRIMARY_WORKING_COPY);
+        
+        assertEquals(modificationCount, EclipseJavaModelListener.getModificationCount());
+        assertSame(provider, EclipseTypeBindingProvider.getInstance(javaProject));
+        assertSame(binding, provider.getTypeBinding(typeA));
+    }
+    
+    @Test
+    public void bindingsAreDroppedWhenDeclarationsChange() {
+        EclipseTypeBindingProvider provider = EclipseTypeBindingProvider.getInstance(javaProject);
+        
+        long modificationCount = EclipseJavaModelListener.getModificationCount();
+        fireChange(typeA, IJavaElementDelta.F_SUPER_TYPES);
+        
+        assertTrue(EclipseJavaModelListener.getModificationCount() > modificationCount);
+        assertTrue(provider != EclipseTypeBindingProvider.getInstance(javaProject));
+    }
+    
+    private static void fireChange(IJavaElement element, int flags) {
+        JavaElementDelta delta = new JavaElementDelta(JavaCore.create(element.getResource().getWorkspace().getRoot()));
+        delta.changed(element, flags);
+        new EclipseJavaModelListener().elementChanged(new ElementChangedEvent(delta, ElementChangedEvent.POST_CHANGE));
+    }
+}
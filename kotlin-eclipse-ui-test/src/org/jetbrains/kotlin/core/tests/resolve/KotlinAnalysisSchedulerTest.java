@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jdt.core.IJavaProject;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.core.resolve.EclipseAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler.Priority;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisSession;
+import org.jetbrains.kotlin.core.tests.diagnostics.JetTestUtils;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.intellij.openapi.project.Project;
+
+public class KotlinAnalysisSchedulerTest extends KotlinProjectTestCase {
+    
+    private static final String BUILD = "build";
+    private static final long TIMEOUT = 10000;
+    
+    private RecordingSession session;
+    private KotlinAnalysisScheduler scheduler;
+    private ExecutorService executor;
+    
+    private JetFile fileA;
+    private JetFile fileB;
+    private JetFile fileC;
+    
+    @Before
+    public void configure() {
+        configureProject();
+        
+        IJavaProject javaProject = getTestProject().getJavaProject();
+        Project project = getTestProject().getKotlinEnvironment().getProject();
+        session = new RecordingSession(javaProject, project);
+        scheduler = new KotlinAnalysisScheduler(session);
+        executor = Executors.newCachedThreadPool();
+        
+        fileA = createJetFile("a.kt", "fun a() {}");
+        fileB = createJetFile("b.kt", "fun b() {}");
+        fileC = createJetFile("c.kt", "fun c() {}");
+    }
+    
+    @After
+    public void shutdown() {
+        session.release.countDown();
+        executor.shutdownNow();
+    }
+    
+    @Test
+    public void requestsAreRunInPriorityOrder() throws Exception {
+        Future<AnalysisResult> editorA = analyzeFileInBackground(fileA);
+        awaitLatch(session.blockedStarted);
+        
+        Future<AnalysisResult> buildB = analyzeFilesInBackground(fileB);
+        waitForQueueDepth(1);
+        Future<AnalysisResult> editorC = analyzeFileInBackground(fileC);
+        waitForQueueDepth(2);
+        
+        session.release.countDown();
+        get(editorA);
+        get(editorC);
+        get(buildB);
+        
+        assertEquals(Arrays.asList("a.kt", "c.kt", BUILD), session.analyses);
+    }
+    
+    @Test
+    public void requestsForSamePsiAreJoined() throws Exception {
+        Future<AnalysisResult> editorA = analyzeFileInBackground(fileA);
+        awaitLatch(session.blockedStarted);
+        
+        Future<AnalysisResult> firstC = analyzeFileInBackground(fileC);
+        waitForQueueDepth(1);
+        Future<AnalysisResult> secondC = analyzeFileInBackground(fileC);
+        waitUntil(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return scheduler.getJoinedCount() == 1;
+            }
+        });
+        
+        session.release.countDown();
+        get(editorA);
+        
+        assertSame(get(firstC), get(secondC));
+        assertEquals(Arrays.asList("a.kt", "c.kt"), session.analyses);
+        assertEquals(0, scheduler.getCoalescedCount());
+    }
+    
+    @Test
+    public void queuedRequestIsReplacedByNewerPsi() throws Exception {
+        Future<AnalysisResult> editorA = analyzeFileInBackground(fileA);
+        awaitLatch(session.blockedStarted);
+        
+        JetFile newFileC = createJetFile("c.kt", "fun c() { c() }");
+        Future<AnalysisResult> oldC = analyzeFileInBackground(fileC);
+        waitForQueueDepth(1);
+        Future<AnalysisResult> newC = analyzeFileInBackground(newFileC);
+        waitUntil(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return scheduler.getCoalescedCount() == 1;
+            }
+        });
+        
+        session.release.countDown();
+        get(editorA);
+        
+        assertSame(get(oldC), get(newC));
+        assertEquals(Arrays.asList("a.kt", "c.kt"), session.analyses);
+        assertEquals(Collections.singletonList(newFileC), session.analyzedFiles.subList(1, 2));
+    }
+    
+    @Test
+    public void buildIsPreemptedByEditor() throws Exception {
+        session.waitForPreemption = true;
+        Future<AnalysisResult> buildB = analyzeFilesInBackground(fileB);
+        awaitLatch(session.buildStarted);
+        
+        Future<AnalysisResult> editorC = analyzeFileInBackground(fileC);
+        get(editorC);
+        get(buildB);
+        
+        assertEquals(Arrays.asList(BUILD, "c.kt", BUILD), session.analyses);
+        assertEquals(1, scheduler.getPreemptedCount());
+    }
+    
+    private Future<AnalysisResult> analyzeFileInBackground(final JetFile jetFile) {
+        return executor.submit(new Callable<AnalysisResult>() {
+            @Override
+            public AnalysisResult call() {
+                return scheduler.analyzeFile(jetFile, Priority.EDITOR, new NullProgressMonitor());
+            }
+        });
+    }
+    
+    private Future<AnalysisResult> analyzeFilesInBackground(final JetFile jetFile) {
+        return executor.submit(new Callable<AnalysisResult>() {
+            @Override
+            public AnalysisResult call() {
+                return scheduler.analyzeFiles(Collections.singletonList(jetFile), Priority.BUILD);
+            }
+        });
+    }
+    
+    private void waitForQueueDepth(final int depth) throws Exception {
+        waitUntil(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return scheduler.getQueueDepth() == depth;
+            }
+        });
+    }
+    
+    private static void waitUntil(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.call()) {
+            assertTrue("Condition was not met in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+    
+    private static void awaitLatch(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+    
+    private static AnalysisResult get(Future<AnalysisResult> result) throws Exception {
+        return result.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+    
+    private JetFile createJetFile(String name, String text) {
+        return JetTestUtils.createFile(name, text, getTestProject().getKotlinEnvironment().getProject());
+    }
+    
+    /**
+     * Records analyses in the order they are run. Analysis of the first file blocks until it is released, 
+     * the first build analysis optionally runs until it is canceled.
+     */
+    private class RecordingSession extends KotlinAnalysisSession {
+        final List<String> analyses = new CopyOnWriteArrayList<>();
+        final List<JetFile> analyzedFiles = new CopyOnWriteArrayList<>();
+        final CountDownLatch blockedStarted = new CountDownLatch(1);
+        final CountDownLatch buildStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        
+        volatile boolean waitForPreemption = false;
+        
+        private final IJavaProject javaProject;
+        private final Project project;
+        
+        RecordingSession(IJavaProject javaProject, Project project) {
+            super(javaProject, project);
+            this.javaProject = javaProject;
+            this.project = project;
+        }
+        
+        @Override
+        public AnalysisResult analyzeFile(JetFile jetFile, IProgressMonitor monitor) {
+            analyses.add(jetFile.getName());
+            analyzedFiles.add(jetFile);
+            if (jetFile == fileA) {
+                blockedStarted.countDown();
+                try {
+                    release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    throw new OperationCanceledException();
+                }
+            }
+            
+            return analyze(Collections.singletonList(jetFile));
+        }
+        
+        @Override
+        public AnalysisResult analyzeFiles(Collection<JetFile> filesToAnalyze, IProgressMonitor monitor) {
+            analyses.add(BUILD);
+            buildStarted.countDown();
+            if (waitForPreemption) {
+                waitForPreemption = false;
+                long deadline = System.currentTimeMillis() + TIMEOUT;
+                while (!monitor.isCanceled() && System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                }
+                throw new OperationCanceledException();
+            }
+            
+            return analyze(filesToAnalyze);
+        }
+        
+        private AnalysisResult analyze(Collection<JetFile> filesToAnalyze) {
+            return EclipseAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(javaProject, project, filesToAnalyze);
+        }
+    }
+}
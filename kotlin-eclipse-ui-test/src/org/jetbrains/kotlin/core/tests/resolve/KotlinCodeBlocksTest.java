@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jetbrains.kotlin.core.resolve.KotlinCodeBlocks;
+import org.jetbrains.kotlin.core.tests.diagnostics.JetTestUtils;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KotlinCodeBlocksTest extends KotlinProjectTestCase {
+    
+    private static final String MARKER = "bar";
+    
+    @Before
+    public void configure() {
+        configureProject();
+    }
+    
+    @Test
+    public void functionBlockBody() {
+        assertTrue(isInCodeBlock("fun foo() { bar() }"));
+        assertTrue(isInCodeBlock("fun foo() { val bar = 1 }"));
+        assertTrue(isInCodeBlock("class A { fun foo() { bar() } }"));
+    }
+    
+    @Test
+    public void functionExpressionBody() {
+        assertTrue(isInCodeBlock("fun foo(): Int = bar()"));
+        assertFalse(isInCodeBlock("fun foo() = bar()"));
+    }
+    
+    @Test
+    public void functionSignature() {
+        assertFalse(isInCodeBlock("fun foo(a: Int = bar()) {}"));
+        assertFalse(isInCodeBlock("fun bar() {}"));
+        assertFalse(isInCodeBlock("class A { fun bar() {} }"));
+    }
+    
+    @Test
+    public void propertyInitializer() {
+        assertTrue(isInCodeBlock("val x: Int = bar()"));
+        assertTrue(isInCodeBlock("val x: Int by bar()"));
+        assertFalse(isInCodeBlock("val x = bar()"));
+        assertFalse(isInCodeBlock("val x by bar()"));
+    }
+    
+    @Test
+    public void propertyAccessor() {
+        assertTrue(isInCodeBlock("val x: Int get() = bar()"));
+        assertTrue(isInCodeBlock("val x: Int get() { return bar() }"));
+        assertFalse(isInCodeBlock("val x get() = bar()"));
+    }
+    
+    @Test
+    public void noElement() {
+        assertFalse(KotlinCodeBlocks.isInCodeBlock(null));
+    }
+    
+    @Test
+    public void hashIgnoresCodeBlocks() {
+        assertSameHash("fun foo() { 1 }", "fun foo() { val x = 2\n x }");
+        assertSameHash("fun foo(): Int = 1", "fun foo(): Int = 2");
+        assertSameHash("val x: Int = 1", "val x: Int = 2");
+        assertSameHash("val x: Int get() = 1", "val x: Int get() = 2");
+    }
+    
+    @Test
+    public void hashIgnoresWhitespacesAndComments() {
+        assertSameHash("fun foo(a: Int) {}", "// comment\nfun  foo( a : Int ) /* comment */ {}\n\n");
+    }
+    
+    @Test
+    public void hashDependsOnDeclarations() {
+        assertDifferentHash("fun foo(a: Int) {}", "fun foo(a: Long) {}");
+        assertDifferentHash("fun foo() {}", "fun foo() {}\nfun bar() {}");
+        assertDifferentHash("fun foo() = 1", "fun foo() = \"1\"");
+        assertDifferentHash("val x = 1", "val x = \"1\"");
+        assertDifferentHash("class A { fun foo() {} }", "class A { private fun foo() {} }");
+    }
+    
+    private boolean isInCodeBlock(String text) {
+        JetFile jetFile = createJetFile(text);
+        return KotlinCodeBlocks.isInCodeBlock(jetFile.findElementAt(text.indexOf(MARKER)));
+    }
+    
+    private void assertSameHash(String first, String second) {
+        assertEquals(computeHash(first), computeHash(second));
+    }
+    
+    private void assertDifferentHash(String first, String second) {
+        assertTrue(computeHash(first) != computeHash(second));
+    }
+    
+    private long computeHash(String text) {
+        return KotlinCodeBlocks.computeOutOfBlockHash(createJetFile(text));
+    }
+    
+    private JetFile createJetFile(String text) {
+        return JetTestUtils.createFile("test.kt", text, getTestProject().getKotlinEnvironment().getProject());
+    }
+}
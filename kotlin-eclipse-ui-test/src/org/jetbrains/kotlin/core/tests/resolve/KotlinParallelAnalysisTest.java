@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisSession;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.testframework.editor.TextEditorTest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KotlinParallelAnalysisTest extends KotlinProjectTestCase {
+    
+    private static final String PACKAGE = TextEditorTest.TEST_PACKAGE_NAME;
+    
+    private final List<JetFile> jetFiles = new ArrayList<>();
+    
+    @Before
+    public void configure() {
+        configureProject();
+        
+        jetFiles.add(createFile("ParallelA.kt", 
+                "package " + PACKAGE + "\n" + 
+                "\n" + 
+                "class ParallelA {\n" + 
+                "    fun foo(): Int = 1\n" + 
+                "}\n" + 
+                "\n" + 
+                "fun useB(): String = parallelB()\n"));
+        jetFiles.add(createFile("ParallelB.kt", 
+                "package " + PACKAGE + "\n" + 
+                "\n" + 
+                "fun parallelB() = ParallelA().foo()\n"));
+        jetFiles.add(createFile("ParallelC.kt", 
+                "package " + PACKAGE + "\n" + 
+                "\n" + 
+                "fun parallelC() {\n" + 
+                "    val x: Int = \"\"\n" + 
+                "    unresolved()\n" + 
+                "}\n"));
+    }
+    
+    @Test
+    public void parallelAnalysisReportsSameDiagnostics() {
+        List<String> sequentialDiagnostics = analyze(false);
+        List<String> parallelDiagnostics = analyze(true);
+        
+        assertFalse(sequentialDiagnostics.isEmpty());
+        assertEquals(sequentialDiagnostics, parallelDiagnostics);
+    }
+    
+    private List<String> analyze(boolean parallel) {
+        String oldValue = System.getProperty(KotlinAnalysisSession.PARALLEL_ANALYSIS_PROPERTY);
+        System.setProperty(KotlinAnalysisSession.PARALLEL_ANALYSIS_PROPERTY, Boolean.toString(parallel));
+        
+        KotlinAnalysisSession session = new KotlinAnalysisSession(getTestProject().getJavaProject(), 
+                getTestProject().getKotlinEnvironment().getProject());
+        try {
+            List<String> diagnostics = new ArrayList<>();
+            for (Diagnostic diagnostic : session.analyzeFiles(jetFiles).getBindingContext().getDiagnostics()) {
+                diagnostics.add(diagnostic.getPsiFile().getName() + ":" + diagnostic.getPsiElement().getTextRange() + 
+                        ":" + diagnostic.getFactory().getName());
+            }
+            Collections.sort(diagnostics);
+            
+            return diagnostics;
+        } finally {
+            session.reset();
+            if (oldValue != null) {
+                System.setProperty(KotlinAnalysisSession.PARALLEL_ANALYSIS_PROPERTY, oldValue);
+            } else {
+                System.clearProperty(KotlinAnalysisSession.PARALLEL_ANALYSIS_PROPERTY);
+            }
+        }
+    }
+    
+    private JetFile createFile(String name, String content) {
+        try {
+            IFile file = getTestProject().createSourceFile(PACKAGE, name, content);
+            JetFile jetFile = KotlinPsiManager.getKotlinParsedFile(file);
+            assertNotNull(jetFile);
+            
+            return jetFile;
+        } catch (CoreException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
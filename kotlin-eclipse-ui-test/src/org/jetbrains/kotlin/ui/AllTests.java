@@ -23,6 +23,10 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses( { 
 	org.jetbrains.kotlin.ui.tests.editors.AllTests.class,
 	org.jetbrains.kotlin.core.tests.launch.AllTests.class,
+	org.jetbrains.kotlin.core.tests.builder.AllTests.class,
+	org.jetbrains.kotlin.core.tests.model.AllTests.class,
+	org.jetbrains.kotlin.core.tests.resolve.AllTests.class,
+	org.jetbrains.kotlin.core.tests.index.AllTests.class,
 	org.jetbrains.kotlin.ui.tests.editors.completion.templates.KotlinTemplatesTest.class,
 	org.jetbrains.kotlin.ui.tests.editors.completion.KotlinBasicCompletionTest.class,
 	org.jetbrains.kotlin.ui.tests.editors.quickfix.intentions.KotlinReplaceGetIntentionTest.class,
@@ -38,6 +38,8 @@ import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.compiler.KotlinCompiler.KotlinCompilerResult;
 import org.jetbrains.kotlin.core.compiler.KotlinCompilerUtils;
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics;
+import org.jetbrains.kotlin.core.model.KotlinPerformanceStatistics.Phase;
 import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics;
 import org.jetbrains.kotlin.ui.editors.AnnotationManager;
 import org.jetbrains.kotlin.ui.editors.DiagnosticAnnotation;
@@ -54,8 +56,6 @@ public class KotlinBuilder extends IncrementalProjectBuilder {
             compileKotlinFiles(javaProject);
         }
         
-        KotlinAnalysisProjectCache.getInstance(javaProject).resetCache();
-        
         AnalysisResult analysisResult = KotlinAnalysisProjectCache.getInstance(javaProject).getAnalysisResult();
         updateLineMarkers(analysisResult.getBindingContext().getDiagnostics());
         
@@ -123,20 +123,25 @@ public class KotlinBuilder extends IncrementalProjectBuilder {
     }
     
     private void addMarkersToProject(Map<IFile, List<DiagnosticAnnotation>> annotations, IProject project) throws CoreException {
-        for (IFile file : KotlinPsiManager.INSTANCE.getFilesByProject(project)) {
-            if (file.exists()) {
-                file.deleteMarkers(AnnotationManager.MARKER_PROBLEM_TYPE, true, IResource.DEPTH_INFINITE);
+        long start = System.nanoTime();
+        try {
+            for (IFile file : KotlinPsiManager.INSTANCE.getFilesByProject(project)) {
+                if (file.exists()) {
+                    file.deleteMarkers(AnnotationManager.MARKER_PROBLEM_TYPE, true, IResource.DEPTH_INFINITE);
+                }
             }
-        }
-        
-        for (IFile file : KotlinPsiManager.INSTANCE.getFilesByProject(getProject())) {
-            DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(file, annotations);
-        }
-        
-        for (Map.Entry<IFile, List<DiagnosticAnnotation>> entry : annotations.entrySet()) {
-            for (DiagnosticAnnotation annotation : entry.getValue()) {
-                AnnotationManager.addProblemMarker(annotation, entry.getKey());
+            
+            for (IFile file : KotlinPsiManager.INSTANCE.getFilesByProject(getProject())) {
+                DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(file, annotations);
+            }
+            
+            for (Map.Entry<IFile, List<DiagnosticAnnotation>> entry : annotations.entrySet()) {
+                for (DiagnosticAnnotation annotation : entry.getValue()) {
+                    AnnotationManager.addProblemMarker(annotation, entry.getKey());
+                }
             }
+        } finally {
+            KotlinPerformanceStatistics.INSTANCE.record(Phase.MARKERS_UPDATE, start);
         }
     }
 }
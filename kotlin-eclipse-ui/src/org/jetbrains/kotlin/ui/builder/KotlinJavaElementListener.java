@@ -19,7 +19,9 @@ package org.jetbrains.kotlin.ui.builder;
 import org.eclipse.jdt.core.ElementChangedEvent;
 import org.eclipse.jdt.core.IElementChangedListener;
 import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.core.builder.KotlinSourceRoots;
 import org.jetbrains.kotlin.core.model.KotlinEnvironment;
 
 public class KotlinJavaElementListener implements IElementChangedListener {
@@ -30,7 +32,9 @@ public class KotlinJavaElementListener implements IElementChangedListener {
     
     public void updateEnvironmentIfClasspathChanged(@NotNull IJavaElementDelta delta) {
         if ((delta.getFlags() & IJavaElementDelta.F_CLASSPATH_CHANGED) != 0) {
-            KotlinEnvironment.updateKotlinEnvironment(delta.getElement().getJavaProject());
+            IJavaProject javaProject = delta.getElement().getJavaProject();
+            KotlinSourceRoots.invalidate(javaProject.getProject());
+            KotlinEnvironment.updateKotlinEnvironment(javaProject);
         } 
         
         for (IJavaElementDelta affectedChild : delta.getAffectedChildren()) {
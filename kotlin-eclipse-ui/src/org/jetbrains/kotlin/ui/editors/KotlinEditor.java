@@ -16,6 +16,8 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.ui.editors;
 
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.debug.ui.actions.IToggleBreakpointsTarget;
 import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.internal.ui.IJavaHelpContextIds;
@@ -26,9 +28,11 @@ import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.text.ITextViewerExtension;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.views.contentoutline.IContentOutlinePage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.ui.debug.KotlinToggleBreakpointAdapter;
 import org.jetbrains.kotlin.ui.editors.outline.KotlinOutlinePage;
 import org.jetbrains.kotlin.ui.navigation.KotlinOpenEditor;
@@ -39,6 +43,7 @@ public class KotlinEditor extends CompilationUnitEditor {
     private final BracketInserter bracketInserter;
     private KotlinOutlinePage kotlinOutlinePage = null;
     private KotlinToggleBreakpointAdapter kotlinToggleBreakpointAdapter = null;
+    private IFile pinnedFile = null;
     
     public KotlinEditor() {
         super();
@@ -90,8 +95,23 @@ public class KotlinEditor extends CompilationUnitEditor {
         setAction(KotlinOpenDeclarationAction.OPEN_EDITOR_TEXT, new KotlinOpenDeclarationAction(this));
     }
     
+    @Override
+    protected void doSetInput(IEditorInput input) throws CoreException {
+        unpinFile();
+        
+        super.doSetInput(input);
+        
+        if (input != null) {
+            pinnedFile = (IFile) input.getAdapter(IFile.class);
+            if (pinnedFile != null) {
+                KotlinPsiManager.INSTANCE.pinFile(pinnedFile);
+            }
+        }
+    }
+    
     @Override
     public void dispose() {
+        unpinFile();
         colorManager.dispose();
         ISourceViewer sourceViewer = getSourceViewer();
         if (sourceViewer instanceof ITextViewerExtension) {
@@ -107,6 +127,13 @@ public class KotlinEditor extends CompilationUnitEditor {
         KotlinOpenEditor.revealKotlinElement(this, element);
     }
 
+    private void unpinFile() {
+        if (pinnedFile != null) {
+            KotlinPsiManager.INSTANCE.unpinFile(pinnedFile);
+            pinnedFile = null;
+        }
+    }
+    
     @NotNull
     private KotlinOutlinePage getKotlinOutlinePage() {
         if (kotlinOutlinePage == null) {
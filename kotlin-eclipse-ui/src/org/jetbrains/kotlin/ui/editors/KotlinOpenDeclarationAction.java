@@ -47,6 +47,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.core.resolve.EclipseDescriptorUtils;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler.Priority;
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer;
 import org.jetbrains.kotlin.core.resolve.lang.java.resolver.EclipseJavaSourceElement;
 import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaElement;
@@ -91,7 +92,7 @@ public class KotlinOpenDeclarationAction extends SelectionDispatchAction {
             return;
         }
         
-        SourceElement element = getTargetElement(getSelectedExpression(file, selection.getOffset()), file, javaProject);
+        SourceElement element = getTargetElement(getSelectedExpression(file, selection.getOffset()), javaProject);
         if (element == null) {
             return;
         }
@@ -106,9 +107,13 @@ public class KotlinOpenDeclarationAction extends SelectionDispatchAction {
     }
     
     @Nullable
-    private SourceElement getTargetElement(@Nullable JetReferenceExpression expression, @NotNull IFile file, @NotNull IJavaProject javaProject) {
+    private SourceElement getTargetElement(@Nullable JetReferenceExpression expression, @NotNull IJavaProject javaProject) {
+        if (expression == null) {
+            return null;
+        }
+        
         BindingContext bindingContext = KotlinAnalyzer
-                .analyzeFile(javaProject, KotlinPsiManager.INSTANCE.getParsedFile(file))
+                .analyzeDeclaration(javaProject, expression, Priority.NAVIGATION)
                 .getBindingContext();
         DeclarationDescriptor descriptor = bindingContext.get(BindingContext.REFERENCE_TARGET, expression);
         if (descriptor != null) {
@@ -21,21 +21,26 @@ import java.util.Map;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.reconciler.DirtyRegion;
 import org.eclipse.jface.text.reconciler.IReconcilingStrategy;
+import org.eclipse.jface.text.reconciler.IReconcilingStrategyExtension;
 import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.texteditor.MarkerAnnotation;
 import org.eclipse.ui.texteditor.MarkerUtilities;
 import org.eclipse.ui.views.contentoutline.IContentOutlinePage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.builder.KotlinDocumentTracker;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
-import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer;
 import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil;
 import org.jetbrains.kotlin.psi.JetFile;
@@ -45,9 +50,11 @@ import org.jetbrains.kotlin.ui.editors.outline.KotlinOutlinePage;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 
-public class KotlinReconcilingStrategy implements IReconcilingStrategy {
+public class KotlinReconcilingStrategy implements IReconcilingStrategy, IReconcilingStrategyExtension {
 
     private final KotlinEditor editor;
+    private volatile KotlinDocumentTracker documentTracker = null;
+    private volatile IProgressMonitor monitor = new NullProgressMonitor();
     
     public KotlinReconcilingStrategy(KotlinEditor editor) {
         this.editor = editor;
@@ -55,6 +62,23 @@ public class KotlinReconcilingStrategy implements IReconcilingStrategy {
     
     @Override
     public void setDocument(IDocument document) {
+        if (documentTracker != null) {
+            documentTracker.dispose();
+        }
+        
+        documentTracker = document != null ? new KotlinDocumentTracker(document) : null;
+    }
+
+    /**
+     * Reconciler cancels the monitor when the document is changed, so analysis of the stale text is aborted
+     */
+    @Override
+    public void setProgressMonitor(IProgressMonitor monitor) {
+        this.monitor = monitor != null ? monitor : new NullProgressMonitor();
+    }
+    
+    @Override
+    public void initialReconcile() {
     }
 
     @Override
@@ -66,29 +90,34 @@ public class KotlinReconcilingStrategy implements IReconcilingStrategy {
         IFile file = EditorUtil.getFile(editor);
         
         if (file != null) {
-            resetCache(file);
-
-            updateLineAnnotations(file);
+            JetFile jetFile = getJetFile(file);
+            if (jetFile == null) {
+                return;
+            }
+            
+            try {
+                updateLineAnnotations(file, jetFile);
+            } catch (OperationCanceledException e) {
+                return; // Document was changed, it will be reconciled again
+            }
             updateOutlinePage();
         } else {
             KotlinLogger.logError("Failed to retrieve IFile from editor " + editor, null);
         }
     }
     
-    private void resetCache(@NotNull IFile file) {
-        IJavaProject javaProject = JavaCore.create(file.getProject());
-        KotlinAnalysisProjectCache.getInstance(javaProject).resetCache();
+    @Nullable
+    private JetFile getJetFile(@NotNull IFile file) {
+        KotlinDocumentTracker tracker = documentTracker;
+        return tracker != null ? 
+                KotlinPsiManager.getKotlinFileIfExist(file, tracker) :
+                KotlinPsiManager.getKotlinFileIfExist(file, EditorUtil.getSourceCode(editor));
     }
     
     @SuppressWarnings("unchecked")
-    private void updateLineAnnotations(IFile file) {
+    private void updateLineAnnotations(@NotNull IFile file, @NotNull JetFile jetFile) {
         IJavaProject javaProject = JavaCore.create(file.getProject());
-        JetFile jetFile = KotlinPsiManager.getKotlinFileIfExist(file, EditorUtil.getSourceCode(editor));
-        if (jetFile == null) {
-            return;
-        }
-        
-        Diagnostics diagnostics = KotlinAnalyzer.analyzeFile(javaProject, jetFile).getBindingContext().getDiagnostics();        
+        Diagnostics diagnostics = KotlinAnalyzer.analyzeFile(javaProject, jetFile, monitor).getBindingContext().getDiagnostics();
         Map<IFile, List<DiagnosticAnnotation>> annotations = DiagnosticAnnotationUtil.INSTANCE.handleDiagnostics(diagnostics);
         
         DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(file, annotations);
@@ -44,6 +44,7 @@ import org.eclipse.jface.text.templates.TemplateProposal;
 import org.eclipse.swt.graphics.Image;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalysisScheduler.Priority;
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer;
 import org.jetbrains.kotlin.descriptors.DeclarationDescriptor;
 import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil;
@@ -145,7 +146,7 @@ public class KotlinCompletionProcessor implements IContentAssistProcessor, IComp
             @NotNull IFile file) {
         IJavaProject javaProject = JavaCore.create(file.getProject());
         BindingContext context = KotlinAnalyzer
-                .analyzeFile(javaProject, simpleNameExpression.getContainingJetFile())
+                .analyzeDeclaration(javaProject, simpleNameExpression, Priority.EDITOR)
                 .getBindingContext();
         
         Function1<DeclarationDescriptor, Boolean> visibilityFilter = new Function1<DeclarationDescriptor, Boolean>() {
@@ -94,7 +94,11 @@ public class KotlinTokenScanner implements ITokenScanner {
         IProject[] projects = ResourcesPlugin.getWorkspace().getRoot().getProjects();
         for (IProject project : projects) {
             if (KotlinNature.hasKotlinNature(project)) {
-                return KotlinEnvironment.getEnvironment(JavaCore.create(project));
+                // Schedules creation of the environment, the document is not highlighted until some environment is ready
+                KotlinEnvironment environment = KotlinEnvironment.getEnvironmentIfReady(JavaCore.create(project));
+                if (environment != null) {
+                    return environment;
+                }
             }
         }
         
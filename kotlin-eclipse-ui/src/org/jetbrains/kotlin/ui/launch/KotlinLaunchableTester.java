@@ -5,6 +5,7 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
 import org.jetbrains.kotlin.idea.MainFunctionDetector;
@@ -17,13 +18,21 @@ public class KotlinLaunchableTester extends PropertyTester {
         if (receiver instanceof IAdaptable) {
             IFile file = (IFile) ((IAdaptable) receiver).getAdapter(IFile.class);
             if (file != null) {
+                // Tester is called from the UI thread, so it uses the latest completed analysis and never waits.
+                // The file is parsed only when the environment is ready, parsing would wait for its creation.
+                IJavaProject javaProject = JavaCore.create(file.getProject()); 
+                KotlinAnalysisProjectCache analysisCache = KotlinAnalysisProjectCache.getInstanceIfReady(javaProject);
+                AnalysisResult analysisResult = analysisCache != null ? analysisCache.getLatestAnalysisResult() : null;
+                if (analysisResult == null) {
+                    return false;
+                }
+                
                 JetFile jetFile = KotlinPsiManager.getKotlinParsedFile(file);
                 if (jetFile == null) {
                     return false;
                 }
                 
-                IJavaProject javaProject = JavaCore.create(file.getProject()); 
-                BindingContext bindingContext = KotlinAnalysisProjectCache.getInstance(javaProject).getAnalysisResult().getBindingContext();
+                BindingContext bindingContext = analysisResult.getBindingContext();
                 return new MainFunctionDetector(bindingContext).hasMain(jetFile.getDeclarations());
             }
         }